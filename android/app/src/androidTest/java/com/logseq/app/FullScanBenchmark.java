@@ -0,0 +1,67 @@
+package com.logseq.app;
+
+import static org.junit.Assert.assertEquals;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.getcapacitor.JSObject;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+
+// Wall clock of a full polling tick at 10k, 50k and 200k files, the sequential walk vs
+// parallelScan on the shared pool. Both must visit the same entries, the timings are logged with
+// the pool's worker count; on a single core the parallel walk only adds its overhead.
+@RunWith(AndroidJUnit4.class)
+public class FullScanBenchmark {
+    private static final int FILES_PER_DIR = 400;
+    private static final int TICKS = 3;
+
+    // workers of the scan pool the parallel ticks ran on
+    private int mWorkers;
+
+    @Test
+    public void scan10k() throws IOException {
+        this.compare(10_000);
+    }
+
+    @Test
+    public void scan50k() throws IOException {
+        this.compare(50_000);
+    }
+
+    @Test
+    public void scan200k() throws IOException {
+        this.compare(200_000);
+    }
+
+    private void compare(int files) throws IOException {
+        File tree = ScanFixtures.createTree("full-" + files, files / FILES_PER_DIR, FILES_PER_DIR);
+        try {
+            ScanFixtures.TickCost sequential = this.idleTicks(tree, new JSObject());
+            ScanFixtures.TickCost parallel = this.idleTicks(tree, new JSObject().put("parallelScan", true));
+            ScanFixtures.log(String.format("full tick, %d files: sequential %s, parallel on %d workers %s, %.2fx",
+                files, sequential, mWorkers, parallel, sequential.ms / parallel.ms));
+            assertEquals(sequential.stats, parallel.stats);
+            assertEquals(sequential.listings, parallel.listings);
+        } finally {
+            ScanFixtures.deleteTree(tree);
+        }
+    }
+
+    private ScanFixtures.TickCost idleTicks(File tree, JSObject options) {
+        FsWatcher plugin = ScanFixtures.plugin();
+        try {
+            ScanFixtures.TickCost cost = ScanFixtures.idleTicks(ScanFixtures.pollingWatcher(plugin, tree, options), TICKS);
+            if (options.has("parallelScan")) {
+                mWorkers = plugin.scanPool().getParallelism();
+            }
+            return cost;
+        } finally {
+            plugin.handleOnDestroy();
+        }
+    }
+}
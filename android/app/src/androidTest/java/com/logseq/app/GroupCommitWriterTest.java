@@ -0,0 +1,129 @@
+package com.logseq.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.StructStat;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(AndroidJUnit4.class)
+public class GroupCommitWriterTest {
+    private File mRoot;
+    private GroupCommitWriter mWriter;
+
+    // what a write's callbacks reported, and on which thread
+    private static final class Result implements GroupCommitWriter.Callback {
+        final CompletableFuture<String> done = new CompletableFuture<>();
+        volatile String thread;
+
+        @Override
+        public void onSynced(StructStat stat) {
+        }
+
+        @Override
+        public void onCommitted(StructStat stat) {
+            this.complete("committed");
+        }
+
+        @Override
+        public void onSuperseded() {
+            this.complete("superseded");
+        }
+
+        @Override
+        public void onFailed(Exception e) {
+            this.complete("failed: " + e.getMessage());
+        }
+
+        private void complete(String outcome) {
+            thread = Thread.currentThread().getName();
+            done.complete(outcome);
+        }
+
+        String await() throws Exception {
+            return done.get(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        mRoot = new File(ScanFixtures.cacheDir(), "writer");
+        ScanFixtures.deleteTree(mRoot);
+        if (!new File(mRoot, "pages").mkdirs()) {
+            throw new IOException("cannot create " + mRoot);
+        }
+        mWriter = new GroupCommitWriter(50);
+    }
+
+    @After
+    public void tearDown() {
+        mWriter.close();
+        ScanFixtures.deleteTree(mRoot);
+    }
+
+    @Test
+    public void supersededWriteIsReportedOnTheWriterThread() throws Exception {
+        File file = new File(mRoot, "pages/a.md");
+        Result first = new Result();
+        Result second = new Result();
+        mWriter.write(file, bytes("one"), first);
+        mWriter.write(file, bytes("two"), second);
+
+        assertEquals("superseded", first.await());
+        assertEquals("FsWatcher-writer", first.thread);
+        assertEquals("committed", second.await());
+        assertEquals("FsWatcher-writer", second.thread);
+    }
+
+    @Test
+    public void replacementKeepsTheFileMode() throws Exception {
+        File file = new File(mRoot, "pages/a.md");
+        Result created = new Result();
+        mWriter.write(file, bytes("one"), created);
+        assertEquals("committed", created.await());
+        Os.chmod(file.getPath(), 0640);
+
+        Result replaced = new Result();
+        mWriter.write(file, bytes("two"), replaced);
+        assertEquals("committed", replaced.await());
+        assertEquals(0640, Os.stat(file.getPath()).st_mode & 07777);
+    }
+
+    @Test
+    public void sweepRemovesStaleTempFilesOnly() throws IOException, ErrnoException {
+        File stale = new File(mRoot, "pages/.a.md.3" + GroupCommitWriter.TEMP_SUFFIX);
+        File page = new File(mRoot, "pages/a.md");
+        File ignored = new File(mRoot, "node_modules/.b.md.1" + GroupCommitWriter.TEMP_SUFFIX);
+        assertTrue(ignored.getParentFile().mkdirs());
+        for (File file : new File[] {stale, page, ignored}) {
+            assertTrue(file.createNewFile());
+        }
+
+        String root = mRoot.getCanonicalPath();
+        mWriter.sweepTemps(root, IgnoreRules.compile(root, Collections.emptyList()));
+        assertFalse(stale.exists());
+        assertTrue(page.exists());
+        // never looked into
+        assertTrue(ignored.exists());
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,121 @@
+package com.logseq.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.getcapacitor.JSObject;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+
+// Syscalls of an idle polling tick over a synthetic 100k-file graph, full scan vs incremental
+// rescan. The counts are exact, the timings are logged.
+@RunWith(AndroidJUnit4.class)
+public class IncrementalScanBenchmark {
+    private static final int DIRS = 250;
+    private static final int FILES_PER_DIR = 400;
+    private static final int TICKS = 5;
+    // the root, pages/ and its subdirectories
+    private static final int ALL_DIRS = DIRS + 2;
+
+    private static File sTree;
+
+    @BeforeClass
+    public static void createTree() throws IOException {
+        sTree = ScanFixtures.createTree("incremental", DIRS, FILES_PER_DIR);
+    }
+
+    @AfterClass
+    public static void deleteTree() {
+        ScanFixtures.deleteTree(sTree);
+    }
+
+    @Test
+    public void fullTickStatsEveryEntry() {
+        ScanFixtures.TickCost cost = this.idleTicks(new JSObject());
+        ScanFixtures.log("full tick, " + DIRS * FILES_PER_DIR + " files: " + cost);
+        assertEquals(ALL_DIRS, cost.listings);
+        // every entry below the root once
+        assertEquals(DIRS * FILES_PER_DIR + ALL_DIRS - 1, cost.stats);
+    }
+
+    @Test
+    public void coldStartWalksTheTreeOnce() {
+        FsWatcher plugin = ScanFixtures.plugin();
+        try {
+            ScanFixtures.TickCost cost = ScanFixtures.tick(ScanFixtures.pollingWatcher(plugin, sTree, new JSObject()));
+            ScanFixtures.log("first tick, " + DIRS * FILES_PER_DIR + " files: " + cost);
+            assertEquals(ALL_DIRS, cost.listings);
+            assertEquals(DIRS * FILES_PER_DIR + ALL_DIRS - 1, cost.stats);
+        } finally {
+            plugin.handleOnDestroy();
+        }
+    }
+
+    @Test
+    public void incrementalTickStatsDirectoriesOnly() {
+        ScanFixtures.TickCost cost = this.idleTicks(new JSObject().put("incremental", true).put("verifyInterval", 0));
+        ScanFixtures.log("incremental tick, " + DIRS * FILES_PER_DIR + " files: " + cost);
+        assertEquals(0, cost.listings);
+        assertEquals(ALL_DIRS, cost.stats);
+    }
+
+    @Test
+    public void incrementalTickRelistsChangedDirectory() throws IOException {
+        FsWatcher plugin = ScanFixtures.plugin();
+        try {
+            FsWatcher.PollingFsWatcher watcher = ScanFixtures.pollingWatcher(plugin, sTree, new JSObject().put("incremental", true).put("verifyInterval", 0));
+            ScanFixtures.tick(watcher);
+            File added = new File(sTree, "pages/d0/added.md");
+            assertTrue(added.createNewFile());
+            try {
+                ScanFixtures.TickCost cost = ScanFixtures.tick(watcher);
+                ScanFixtures.log("incremental tick, one directory changed: " + cost);
+                assertEquals(1, cost.listings);
+                assertEquals(ALL_DIRS + FILES_PER_DIR + 1, cost.stats);
+            } finally {
+                added.delete();
+            }
+        } finally {
+            plugin.handleOnDestroy();
+        }
+    }
+
+    @Test
+    public void incrementalTickVerifiesFilesOnceTheIntervalPassed() throws InterruptedException {
+        FsWatcher plugin = ScanFixtures.plugin();
+        try {
+            FsWatcher.PollingFsWatcher watcher = ScanFixtures.pollingWatcher(plugin, sTree, new JSObject().put("incremental", true).put("verifyInterval", 2000));
+            ScanFixtures.tick(watcher);
+            // past the second of the last change in the tree, see DirSnapshot
+            Thread.sleep(1100);
+            ScanFixtures.tick(watcher);
+            assertEquals(ALL_DIRS, ScanFixtures.tick(watcher).stats);
+            Thread.sleep(1000);
+            ScanFixtures.TickCost cost = ScanFixtures.tick(watcher);
+            ScanFixtures.log("incremental tick, verifying files: " + cost);
+            assertEquals(0, cost.listings);
+            assertEquals(ALL_DIRS + DIRS * FILES_PER_DIR, cost.stats);
+            // not again until the next interval
+            assertEquals(ALL_DIRS, ScanFixtures.tick(watcher).stats);
+        } finally {
+            plugin.handleOnDestroy();
+        }
+    }
+
+    private ScanFixtures.TickCost idleTicks(JSObject options) {
+        FsWatcher plugin = ScanFixtures.plugin();
+        try {
+            return ScanFixtures.idleTicks(ScanFixtures.pollingWatcher(plugin, sTree, options), TICKS);
+        } finally {
+            plugin.handleOnDestroy();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.logseq.app;
+
+import static org.junit.Assert.assertTrue;
+
+import android.system.OsConstants;
+import android.system.StructStat;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.getcapacitor.JSObject;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+
+// Allocation of an idle full tick over a synthetic 100k-file graph, CompactMetaStore (the default
+// sequential scan) vs the metaDb map rebuilt by every tick (parallelScan). Logged per tick and per
+// file, together with the collections the ticks caused. A bare listing and stat of the same tree is
+// logged as the floor both share.
+@RunWith(AndroidJUnit4.class)
+public class MetaStoreAllocationBenchmark {
+    private static final int DIRS = 250;
+    private static final int FILES_PER_DIR = 400;
+    private static final int TICKS = 5;
+
+    private static File sTree;
+
+    @BeforeClass
+    public static void createTree() throws IOException {
+        sTree = ScanFixtures.createTree("allocation", DIRS, FILES_PER_DIR);
+    }
+
+    @AfterClass
+    public static void deleteTree() {
+        ScanFixtures.deleteTree(sTree);
+    }
+
+    @Test
+    public void compactStoreAllocatesLessThanTheMap() {
+        long floor = this.walkOnly();
+        long compact = this.allocatedPerTick("compact store", new JSObject());
+        long map = this.allocatedPerTick("metaDb map", new JSObject().put("parallelScan", true));
+        ScanFixtures.log(String.format("on top of the walk: compact store %d B/file, metaDb map %d B/file",
+            (compact - floor) / (DIRS * FILES_PER_DIR), (map - floor) / (DIRS * FILES_PER_DIR)));
+        assertTrue(compact < map);
+    }
+
+    // what listing and stat'ing every entry allocates by itself
+    private long walkOnly() {
+        this.walk(sTree.getAbsolutePath());
+        long bytes = ScanFixtures.allocatedBytes();
+        for (int i = 0; i < TICKS; i++) {
+            this.walk(sTree.getAbsolutePath());
+        }
+        long perTick = (ScanFixtures.allocatedBytes() - bytes) / TICKS;
+        ScanFixtures.log(String.format("walk only, %d files: %.1f MB/tick, %d B/file",
+            DIRS * FILES_PER_DIR, perTick / 1048576.0, perTick / (DIRS * FILES_PER_DIR)));
+        return perTick;
+    }
+
+    private void walk(String dir) {
+        String[] names = FsWatcher.listDir(dir);
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            String path = dir + "/" + name;
+            StructStat stat = FsWatcher.statEntry(path);
+            if (stat != null && OsConstants.S_ISDIR(stat.st_mode)) {
+                this.walk(path);
+            }
+        }
+    }
+
+    private long allocatedPerTick(String name, JSObject options) {
+        FsWatcher plugin = ScanFixtures.plugin();
+        try {
+            FsWatcher.PollingFsWatcher watcher = ScanFixtures.pollingWatcher(plugin, sTree, options);
+            // the initial scan fills the store, steady state is what's measured
+            ScanFixtures.tick(watcher);
+            ScanFixtures.tick(watcher);
+            long bytes = ScanFixtures.allocatedBytes();
+            long gcs = ScanFixtures.gcCount();
+            for (int i = 0; i < TICKS; i++) {
+                ScanFixtures.tick(watcher);
+            }
+            long perTick = (ScanFixtures.allocatedBytes() - bytes) / TICKS;
+            ScanFixtures.log(String.format("%s, %d files: %.1f MB/tick, %d B/file, %d gc in %d ticks",
+                name, DIRS * FILES_PER_DIR, perTick / 1048576.0, perTick / (DIRS * FILES_PER_DIR),
+                ScanFixtures.gcCount() - gcs, TICKS));
+            return perTick;
+        } finally {
+            plugin.handleOnDestroy();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.logseq.app;
+
+import android.os.Build;
+import android.os.Debug;
+import android.util.Log;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.getcapacitor.JSObject;
+import com.getcapacitor.PluginCall;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+// Synthetic graphs and bridge-less watchers for the scan benchmarks. They need a device or an
+// emulator, the walks go through android.system.Os and the allocation counters are ART's:
+//   ./gradlew :app:connectedDebugAndroidTest \
+//     -Pandroid.testInstrumentationRunnerArguments.class=com.logseq.app.FullScanBenchmark
+//   adb logcat -s FsWatcherBench
+// Results are logged under FsWatcherBench, after a line naming the device they were taken on.
+final class ScanFixtures {
+    static final String TAG = "FsWatcherBench";
+    private static boolean sLoggedDevice = false;
+
+    private ScanFixtures() {
+    }
+
+    // what one scan() cost, from the shared WatcherMetrics counters
+    static final class TickCost {
+        long stats;
+        long listings;
+        double ms;
+
+        @Override
+        public String toString() {
+            return String.format("%d stat, %d list, %.1f ms", stats, listings, ms);
+        }
+    }
+
+    static File cacheDir() {
+        return InstrumentationRegistry.getInstrumentation().getTargetContext().getCacheDir();
+    }
+
+    // root/pages/d0 .. d<dirs - 1>, files small Markdown pages in each
+    static File createTree(String name, int dirs, int files) throws IOException {
+        File root = new File(cacheDir(), "bench-" + name);
+        deleteTree(root);
+        for (int d = 0; d < dirs; d++) {
+            File dir = new File(root, "pages/d" + d);
+            if (!dir.mkdirs()) {
+                throw new IOException("cannot create " + dir);
+            }
+            for (int f = 0; f < files; f++) {
+                try (FileOutputStream out = new FileOutputStream(new File(dir, "page-" + f + ".md"))) {
+                    out.write(("- block " + f + "\n").getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        }
+        // a listing taken in the second of the directory's last change isn't trusted, see DirSnapshot
+        try {
+            Thread.sleep(1100);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return root;
+    }
+
+    static void deleteTree(File file) {
+        if (file == null) {
+            return;
+        }
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTree(child);
+            }
+        }
+        file.delete();
+    }
+
+    // a loaded plugin, handleOnDestroy() when done
+    static FsWatcher plugin() {
+        FsWatcher plugin = new FsWatcher();
+        plugin.load();
+        return plugin;
+    }
+
+    // watch() options, always polling
+    static FsWatcher.WatchOptions options(JSObject data) {
+        data.put("mode", "polling");
+        return new FsWatcher.WatchOptions(new PluginCall(null, "FsWatcher", "-1", "watch", data), cacheDir());
+    }
+
+    // never started, ticks only run through scan()
+    static FsWatcher.PollingFsWatcher pollingWatcher(FsWatcher plugin, File root, JSObject data) {
+        FsWatcher.WatchOptions options = options(data);
+        return plugin.new PollingFsWatcher(plugin.new WatchedRoot(root.getAbsolutePath(), options), options);
+    }
+
+    static TickCost tick(FsWatcher.PollingFsWatcher watcher) {
+        long stats = FsWatcher.METRICS.statCalls.get();
+        long listings = FsWatcher.METRICS.dirsVisited.get();
+        long start = System.nanoTime();
+        watcher.scan();
+        TickCost cost = new TickCost();
+        cost.ms = (System.nanoTime() - start) / 1e6;
+        cost.stats = FsWatcher.METRICS.statCalls.get() - stats;
+        cost.listings = FsWatcher.METRICS.dirsVisited.get() - listings;
+        return cost;
+    }
+
+    // the initial scan, then the average of ticks over the unchanged tree
+    static TickCost idleTicks(FsWatcher.PollingFsWatcher watcher, int ticks) {
+        tick(watcher);
+        TickCost total = new TickCost();
+        for (int i = 0; i < ticks; i++) {
+            TickCost cost = tick(watcher);
+            total.stats += cost.stats;
+            total.listings += cost.listings;
+            total.ms += cost.ms;
+        }
+        total.stats /= ticks;
+        total.listings /= ticks;
+        total.ms /= ticks;
+        return total;
+    }
+
+    // bytes allocated by the runtime so far, and the collections it ran
+    static long allocatedBytes() {
+        return Long.parseLong(Debug.getRuntimeStat("art.gc.bytes-allocated"));
+    }
+
+    static long gcCount() {
+        return Long.parseLong(Debug.getRuntimeStat("art.gc.gc-count"));
+    }
+
+    static synchronized void log(String message) {
+        if (!sLoggedDevice) {
+            sLoggedDevice = true;
+            Log.i(TAG, String.format("%s %s, API %d, %d cores", Build.MANUFACTURER, Build.MODEL,
+                Build.VERSION.SDK_INT, Runtime.getRuntime().availableProcessors()));
+        }
+        Log.i(TAG, message);
+    }
+}
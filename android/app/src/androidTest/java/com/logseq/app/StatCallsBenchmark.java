@@ -0,0 +1,89 @@
+package com.logseq.app;
+
+import static org.junit.Assert.assertEquals;
+
+import android.system.ErrnoException;
+import android.system.Os;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.getcapacitor.JSObject;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+
+// stat(2) calls of a full polling tick against the walk it replaced, which asked File.isDirectory()
+// and File.isFile() before stat'ing each file, over a synthetic 100k-file graph. The new tick is
+// counted by WatcherMetrics.statCalls, the old walk by construction, one per File query or Os.stat.
+@RunWith(AndroidJUnit4.class)
+public class StatCallsBenchmark {
+    private static final int DIRS = 250;
+    private static final int FILES_PER_DIR = 400;
+    private static final int TICKS = 5;
+    // pages/ and its subdirectories, the root itself is never stat'ed as an entry
+    private static final int ENTRY_DIRS = DIRS + 1;
+
+    private static File sTree;
+
+    @BeforeClass
+    public static void createTree() throws IOException {
+        sTree = ScanFixtures.createTree("stat-calls", DIRS, FILES_PER_DIR);
+    }
+
+    @AfterClass
+    public static void deleteTree() {
+        ScanFixtures.deleteTree(sTree);
+    }
+
+    @Test
+    public void oneStatPerEntry() {
+        ScanFixtures.TickCost tick;
+        FsWatcher plugin = ScanFixtures.plugin();
+        try {
+            tick = ScanFixtures.idleTicks(ScanFixtures.pollingWatcher(plugin, sTree, new JSObject()), TICKS);
+        } finally {
+            plugin.handleOnDestroy();
+        }
+
+        // the old walk skips the ignore rules and the store, only its counts compare
+        ScanFixtures.TickCost old = new ScanFixtures.TickCost();
+        this.oldWalk(sTree.getAbsolutePath(), old);
+
+        ScanFixtures.log(String.format("full tick, %d files: %d stat, %d list; before %d stat, %d list, %.1fx fewer stats",
+            DIRS * FILES_PER_DIR, tick.stats, tick.listings, old.stats, old.listings, (double) old.stats / tick.stats));
+        assertEquals(DIRS * FILES_PER_DIR + ENTRY_DIRS, tick.stats);
+        // a directory took one query, a file three
+        assertEquals(3L * DIRS * FILES_PER_DIR + ENTRY_DIRS, old.stats);
+    }
+
+    private void oldWalk(String dir, ScanFixtures.TickCost cost) {
+        cost.listings++;
+        String[] names = new File(dir).list();
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            File file = new File(dir, name);
+            cost.stats++;
+            if (file.isDirectory()) {
+                this.oldWalk(file.getPath(), cost);
+                continue;
+            }
+            cost.stats++;
+            if (!file.isFile()) {
+                continue;
+            }
+            try {
+                cost.stats++;
+                Os.stat(file.getPath());
+            } catch (ErrnoException e) {
+                // gone since the listing
+            }
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.logseq.app;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Splits a Markdown or Org page into its block tree in one pass over the text, so the graph parser
+// gets the blocks' boundaries without walking the file on the JS thread. Only structure is parsed:
+// - a block starts at a bullet ("- ", "* ", "+ " in Markdown, "*" headings in Org) or a Markdown
+//   heading at column 0; lines before the first one form the pre-block, e.g. page properties
+// - its level comes from the bullet's indentation, tabs or spaces alike
+// - key:: value lines right after its first line (or an Org :PROPERTIES: drawer) are its
+//   properties, id:: is kept apart as the block's uuid
+// Fenced code is opaque, a bullet inside ``` or #+BEGIN_SRC doesn't start a block.
+//
+// Ranges are UTF-16 offsets into the content, as JS indexes strings: [start, end) covers the
+// block's own lines, up to where its first child or next sibling begins.
+final class BlockOutliner {
+    private static final Pattern PROPERTY = Pattern.compile("^[ \\t]*([A-Za-z0-9_][A-Za-z0-9_\\-.]*):: ?(.*)$");
+    private static final Pattern DRAWER_PROPERTY = Pattern.compile("^[ \\t]*:([A-Za-z0-9_\\-]+):[ \\t]*(.*)$");
+    // #+title: of an Org page
+    private static final Pattern ORG_KEYWORD = Pattern.compile("^#\\+([A-Za-z0-9_\\-]+):[ \\t]*(.*)$");
+
+    static final class Outline {
+        final boolean org;
+        int count = 0;
+        // per block; level 0 is the pre-block, parent -1 for top-level blocks
+        int[] levels = new int[16];
+        int[] starts = new int[16];
+        int[] ends = new int[16];
+        int[] parents = new int[16];
+        String[] ids = new String[16];
+        // key, value, key, value, ... null for blocks without properties
+        String[][] properties = new String[16][];
+
+        Outline(boolean org) {
+            this.org = org;
+        }
+
+        private int add(int level, int start, int parent) {
+            if (count == levels.length) {
+                int size = count * 2;
+                levels = Arrays.copyOf(levels, size);
+                starts = Arrays.copyOf(starts, size);
+                ends = Arrays.copyOf(ends, size);
+                parents = Arrays.copyOf(parents, size);
+                ids = Arrays.copyOf(ids, size);
+                properties = Arrays.copyOf(properties, size);
+            }
+            levels[count] = level;
+            starts[count] = start;
+            parents[count] = parent;
+            return count++;
+        }
+
+        private void property(int block, String key, String value) {
+            if (key.equalsIgnoreCase("id")) {
+                ids[block] = value.trim();
+                return;
+            }
+            String[] props = properties[block];
+            props = props == null ? new String[2] : Arrays.copyOf(props, props.length + 2);
+            props[props.length - 2] = key.toLowerCase();
+            props[props.length - 1] = value.trim();
+            properties[block] = props;
+        }
+
+        // {format, blocks: [{level, start, end, parent, id?, properties?}]}
+        JSObject toJSObject() {
+            JSArray blocks = new JSArray();
+            for (int i = 0; i < count; i++) {
+                JSObject block = new JSObject();
+                block.put("level", levels[i]);
+                block.put("start", starts[i]);
+                block.put("end", ends[i]);
+                block.put("parent", parents[i]);
+                if (ids[i] != null) {
+                    block.put("id", ids[i]);
+                }
+                if (properties[i] != null) {
+                    JSObject props = new JSObject();
+                    for (int p = 0; p < properties[i].length; p += 2) {
+                        props.put(properties[i][p], properties[i][p + 1]);
+                    }
+                    block.put("properties", props);
+                }
+                blocks.put(block);
+            }
+            JSObject obj = new JSObject();
+            obj.put("format", org ? "org" : "markdown");
+            obj.put("blocks", blocks);
+            return obj;
+        }
+    }
+
+    static boolean isOutlined(String name) {
+        String lower = name.toLowerCase();
+        return lower.endsWith(".md") || lower.endsWith(".markdown") || lower.endsWith(".org");
+    }
+
+    static Outline parse(String content, boolean org) {
+        Outline outline = new Outline(org);
+        // indentation and index of the blocks on the path to the current one, by depth
+        int[] indents = new int[16];
+        int[] path = new int[16];
+        int depth = 0;
+
+        int current = -1;
+        // still in the lines right after the current block's first one that are all properties
+        boolean inHeader = false;
+        boolean inDrawer = false;
+        boolean inFence = false;
+
+        int length = content.length();
+        int lineStart = 0;
+        while (lineStart < length) {
+            int lineEnd = content.indexOf('\n', lineStart);
+            if (lineEnd < 0) {
+                lineEnd = length;
+            }
+            int i = lineStart;
+            int indent = 0;
+            while (i < lineEnd && (content.charAt(i) == ' ' || content.charAt(i) == '\t')) {
+                // a tab is one level, like two spaces
+                indent += content.charAt(i) == '\t' ? 2 : 1;
+                i++;
+            }
+
+            if (isFence(content, i, lineEnd, org, inFence)) {
+                inFence = !inFence;
+                inHeader = false;
+                lineStart = lineEnd + 1;
+                continue;
+            }
+            if (inFence) {
+                lineStart = lineEnd + 1;
+                continue;
+            }
+
+            int level = org && indent == 0 ? orgHeading(content, i, lineEnd) : -1;
+            boolean bullet = !org && isBullet(content, i, lineEnd);
+            boolean heading = !org && indent == 0 && isHeading(content, i, lineEnd);
+            if (level > 0 || bullet || heading) {
+                if (org) {
+                    depth = Math.min(depth, level - 1);
+                    while (depth < level - 1) {
+                        // a skipped heading level hangs off the nearest heading above
+                        path = grow(path, depth + 1);
+                        path[depth] = depth == 0 ? -1 : path[depth - 1];
+                        depth++;
+                    }
+                } else {
+                    while (depth > 0 && indents[depth - 1] >= indent) {
+                        depth--;
+                    }
+                    indents = grow(indents, depth + 1);
+                    indents[depth] = indent;
+                    level = depth + 1;
+                }
+                if (current >= 0) {
+                    outline.ends[current] = lineStart;
+                }
+                current = outline.add(level, lineStart, depth > 0 ? path[depth - 1] : -1);
+                path = grow(path, depth + 1);
+                path[depth++] = current;
+                inHeader = true;
+                inDrawer = false;
+                // "- key:: value" as the first line, a block of properties only
+                if (bullet && i + 2 <= lineEnd) {
+                    property(outline, current, content, i + 2, lineEnd);
+                }
+            } else {
+                if (current < 0 && i < lineEnd) {
+                    // the pre-block: page properties and anything else before the first block
+                    current = outline.add(0, lineStart, -1);
+                    inHeader = true;
+                }
+                if (inHeader) {
+                    if (org && startsWith(content, i, lineEnd, ":PROPERTIES:")) {
+                        inDrawer = true;
+                    } else if (inDrawer) {
+                        if (startsWith(content, i, lineEnd, ":END:")) {
+                            inDrawer = false;
+                        } else {
+                            Matcher m = DRAWER_PROPERTY.matcher(content.substring(i, lineEnd));
+                            if (m.matches()) {
+                                outline.property(current, m.group(1), m.group(2));
+                            }
+                        }
+                    } else if (org && outline.levels[current] == 0 && startsWith(content, i, lineEnd, "#+")) {
+                        Matcher m = ORG_KEYWORD.matcher(content.substring(i, lineEnd));
+                        inHeader = m.matches();
+                        if (inHeader) {
+                            outline.property(current, m.group(1), m.group(2));
+                        }
+                    } else {
+                        inHeader = property(outline, current, content, i, lineEnd);
+                    }
+                }
+            }
+            lineStart = lineEnd + 1;
+        }
+        if (current >= 0) {
+            outline.ends[current] = length;
+        }
+        return outline;
+    }
+
+    private static boolean property(Outline outline, int block, String content, int from, int to) {
+        // cheap pre-check before the regex, most lines aren't properties
+        int sep = from;
+        while (sep + 1 < to && (content.charAt(sep) != ':' || content.charAt(sep + 1) != ':')) {
+            sep++;
+        }
+        if (sep + 1 >= to) {
+            return false;
+        }
+        Matcher m = PROPERTY.matcher(content.substring(from, to));
+        if (!m.matches()) {
+            return false;
+        }
+        outline.property(block, m.group(1), m.group(2));
+        return true;
+    }
+
+    private static boolean isBullet(String content, int i, int end) {
+        if (i >= end) {
+            return false;
+        }
+        char c = content.charAt(i);
+        return (c == '-' || c == '*' || c == '+') && (i + 1 == end || content.charAt(i + 1) == ' ' || content.charAt(i + 1) == '\t');
+    }
+
+    private static boolean isHeading(String content, int i, int end) {
+        if (i >= end || content.charAt(i) != '#') {
+            return false;
+        }
+        int hashes = 0;
+        while (i + hashes < end && content.charAt(i + hashes) == '#') {
+            hashes++;
+        }
+        return hashes <= 6 && (i + hashes == end || content.charAt(i + hashes) == ' ');
+    }
+
+    // ``` in Markdown, #+BEGIN_ / #+END_ blocks in Org
+    private static boolean isFence(String content, int i, int end, boolean org, boolean inFence) {
+        if (!org) {
+            return startsWith(content, i, end, "```");
+        }
+        String marker = inFence ? "#+END_" : "#+BEGIN_";
+        return end - i >= marker.length() && content.regionMatches(true, i, marker, 0, marker.length());
+    }
+
+    // stars of an Org heading at column 0, -1 for any other line
+    private static int orgHeading(String content, int i, int end) {
+        int stars = 0;
+        while (i + stars < end && content.charAt(i + stars) == '*') {
+            stars++;
+        }
+        return stars > 0 && (i + stars == end || content.charAt(i + stars) == ' ') ? stars : -1;
+    }
+
+    private static boolean startsWith(String content, int i, int end, String prefix) {
+        return end - i >= prefix.length() && content.startsWith(prefix, i);
+    }
+
+    private static int[] grow(int[] array, int size) {
+        return size <= array.length ? array : Arrays.copyOf(array, Math.max(size, array.length * 2));
+    }
+}
@@ -0,0 +1,385 @@
+package com.logseq.app;
+
+import android.net.Uri;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.system.StructStat;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+import com.getcapacitor.Plugin;
+import com.getcapacitor.PluginCall;
+import com.getcapacitor.PluginHandle;
+import com.getcapacitor.PluginMethod;
+import com.getcapacitor.annotation.CapacitorPlugin;
+
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Batched file operations, so loading a graph costs a bridge crossing per few hundred files
+// instead of one per file. Each method takes an array, works through it in slices on a small
+// pool and calls back with chunks capped by file count and content bytes:
+//   {index, files: [{path, ...} | {path, error}], last}
+// Chunks may arrive out of input order, files carry their path. The last chunk also has
+// {total, errors, chunks}.
+//
+// Paths are absolute (or file:// uris) and must lie inside a graph FsWatcher watches, anything
+// else fails with "not in a watched graph".
+@CapacitorPlugin(name = "BulkFs")
+public class BulkFs extends Plugin {
+    private static final int DEFAULT_CHUNK_MAX_FILES = 200;
+    private static final int DEFAULT_CHUNK_MAX_BYTES = 1024 * 1024;
+
+    // flash storage gains little past a few concurrent requests
+    private ThreadPoolExecutor mExecutor;
+
+    private interface Op {
+        // result of the i-th input, with path set
+        JSObject apply(int i);
+    }
+
+    // an Op completing on another thread
+    private interface AsyncOp {
+        CompletableFuture<JSObject> start(int i);
+    }
+
+    // on the pool, the Op giving the results of inputs [from, to)
+    private interface Slicer {
+        Op slice(int from, int to);
+    }
+
+    @Override
+    public void load() {
+        super.load();
+        int threads = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        mExecutor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), r -> new Thread(r, "BulkFs-io"));
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    protected void handleOnDestroy() {
+        mExecutor.shutdownNow();
+        super.handleOnDestroy();
+    }
+
+    // {paths} -> {path, stat: {type, size, mtime, ctime}}, symlinks are followed
+    @PluginMethod(returnType = PluginMethod.RETURN_CALLBACK)
+    public void statMany(PluginCall call) {
+        JSArray paths = call.getArray("paths");
+        if (paths == null) {
+            call.reject("missing paths");
+            return;
+        }
+        FsWatcher watcher = this.watcher();
+        if (watcher == null) {
+            call.reject("FsWatcher not loaded");
+            return;
+        }
+        this.run(call, paths.length(), i -> {
+            String path = paths.optString(i);
+            JSObject obj = new JSObject();
+            obj.put("path", path);
+            String file = toFilePath(path);
+            String error = checkPath(watcher, file);
+            if (error != null) {
+                obj.put("error", error);
+                return obj;
+            }
+            try {
+                obj.put("stat", toStat(Os.stat(file)));
+            } catch (ErrnoException e) {
+                obj.put("error", e.getMessage());
+            }
+            return obj;
+        });
+    }
+
+    // {paths} -> {path, content}, UTF-8
+    @PluginMethod(returnType = PluginMethod.RETURN_CALLBACK)
+    public void readMany(PluginCall call) {
+        JSArray paths = call.getArray("paths");
+        if (paths == null) {
+            call.reject("missing paths");
+            return;
+        }
+        FsWatcher watcher = this.watcher();
+        if (watcher == null) {
+            call.reject("FsWatcher not loaded");
+            return;
+        }
+        this.run(call, paths.length(), i -> {
+            String path = paths.optString(i);
+            JSObject obj = new JSObject();
+            obj.put("path", path);
+            String file = toFilePath(path);
+            String error = checkPath(watcher, file);
+            if (error != null) {
+                obj.put("error", error);
+                return obj;
+            }
+            try {
+                obj.put("content", FsWatcher.readUncounted(new File(file)));
+            } catch (IOException e) {
+                obj.put("error", e.getMessage());
+            }
+            return obj;
+        });
+    }
+
+    // {files: [{path, content}]} -> {path, stat}, or {path, superseded: true} when a later write to
+    // the same path replaced it first. Written atomically through FsWatcher's group-commit writer,
+    // parent directories are created as needed and the watched graphs holding them don't echo them.
+    @PluginMethod(returnType = PluginMethod.RETURN_CALLBACK)
+    public void writeMany(PluginCall call) {
+        JSArray files = call.getArray("files");
+        if (files == null) {
+            call.reject("missing files");
+            return;
+        }
+        FsWatcher watcher = this.watcher();
+        if (watcher == null) {
+            call.reject("FsWatcher not loaded");
+            return;
+        }
+        this.runAsync(call, files.length(), i -> {
+            JSObject obj = new JSObject();
+            JSONObject input = files.optJSONObject(i);
+            String path = input == null ? null : input.optString("path", null);
+            obj.put("path", path);
+            String file = toFilePath(path);
+            String error = checkPath(watcher, file);
+            if (error == null && input.isNull("content")) {
+                error = "missing content";
+            }
+            if (error != null) {
+                obj.put("error", error);
+                return CompletableFuture.completedFuture(obj);
+            }
+
+            CompletableFuture<JSObject> result = new CompletableFuture<>();
+            watcher.writeLocal(new File(file), input.optString("content").getBytes(StandardCharsets.UTF_8), new GroupCommitWriter.Callback() {
+                @Override
+                public void onSynced(StructStat stat) {
+                    // registered by FsWatcher
+                }
+
+                @Override
+                public void onCommitted(StructStat stat) {
+                    obj.put("stat", toStat(stat));
+                    result.complete(obj);
+                }
+
+                @Override
+                public void onSuperseded() {
+                    obj.put("superseded", true);
+                    result.complete(obj);
+                }
+
+                @Override
+                public void onFailed(Exception e) {
+                    obj.put("error", e.getMessage());
+                    result.complete(obj);
+                }
+            });
+            return result;
+        });
+    }
+
+    private FsWatcher watcher() {
+        PluginHandle handle = getBridge().getPlugin("FsWatcher");
+        return handle == null ? null : (FsWatcher) handle.getInstance();
+    }
+
+    // All inputs of a slice are started before the first is waited for, so the writer commits them
+    // as one group instead of one window per file.
+    private void runAsync(PluginCall call, int count, AsyncOp op) {
+        this.runSlices(call, count, (from, to) -> {
+            List<CompletableFuture<JSObject>> results = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                results.add(op.start(i));
+            }
+            return i -> {
+                try {
+                    return results.get(i - from).get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    // never completed exceptionally
+                }
+                JSObject obj = new JSObject();
+                obj.put("error", "interrupted");
+                return obj;
+            };
+        });
+    }
+
+    private void run(PluginCall call, int count, Op op) {
+        this.runSlices(call, count, (from, to) -> op);
+    }
+
+    private void runSlices(PluginCall call, int count, Slicer slicer) {
+        int maxFiles = Math.max(1, call.getInt("chunkMaxFiles", DEFAULT_CHUNK_MAX_FILES));
+        long maxBytes = call.getInt("chunkMaxBytes", DEFAULT_CHUNK_MAX_BYTES);
+        int slices = (count + maxFiles - 1) / maxFiles;
+        Batch batch = new Batch(call, Math.max(1, slices));
+        call.setKeepAlive(true);
+        if (count == 0) {
+            batch.sliceDone(new JSArray());
+            return;
+        }
+        for (int s = 0; s < slices; s++) {
+            int from = s * maxFiles;
+            int to = Math.min(count, from + maxFiles);
+            try {
+                mExecutor.execute(() -> batch.runSlice(slicer.slice(from, to), from, to, maxFiles, maxBytes));
+            } catch (RejectedExecutionException e) {
+                batch.abort("plugin destroyed");
+                return;
+            }
+        }
+    }
+
+    // One call in flight. Slices run concurrently, emitting serializes their chunks so the one
+    // finishing the last slice is also the last to call back.
+    private final class Batch {
+        private final PluginCall mCall;
+        private int mPendingSlices;
+        private int mChunks = 0;
+        private int mTotal = 0;
+        private int mErrors = 0;
+        private boolean mFinished = false;
+
+        Batch(PluginCall call, int slices) {
+            mCall = call;
+            mPendingSlices = slices;
+        }
+
+        void runSlice(Op op, int from, int to, int maxFiles, long maxBytes) {
+            JSArray files = new JSArray();
+            long bytes = 0;
+            for (int i = from; i < to; i++) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                JSObject obj = op.apply(i);
+                files.put(obj);
+                Object content = obj.opt("content");
+                if (content instanceof String) {
+                    bytes += utf8Length((String) content);
+                }
+                if (files.length() >= maxFiles || bytes >= maxBytes) {
+                    this.emit(files, false);
+                    files = new JSArray();
+                    bytes = 0;
+                }
+            }
+            this.sliceDone(files);
+        }
+
+        synchronized void sliceDone(JSArray files) {
+            boolean last = --mPendingSlices == 0;
+            if (files.length() > 0 || last) {
+                this.emit(files, last);
+            }
+        }
+
+        synchronized void abort(String message) {
+            if (!mFinished) {
+                mFinished = true;
+                mCall.reject(message);
+                getBridge().releaseCall(mCall);
+            }
+        }
+
+        private synchronized void emit(JSArray files, boolean last) {
+            if (mFinished) {
+                return;
+            }
+            for (int i = 0; i < files.length(); i++) {
+                JSONObject obj = files.optJSONObject(i);
+                if (obj != null && obj.has("error")) {
+                    mErrors++;
+                }
+            }
+            mTotal += files.length();
+
+            JSObject chunk = new JSObject();
+            chunk.put("index", mChunks++);
+            chunk.put("files", files);
+            chunk.put("last", last);
+            if (last) {
+                chunk.put("total", mTotal);
+                chunk.put("errors", mErrors);
+                chunk.put("chunks", mChunks);
+                mFinished = true;
+            }
+            mCall.resolve(chunk);
+            if (last) {
+                getBridge().releaseCall(mCall);
+            }
+        }
+    }
+
+    // null when file may be used, otherwise the error to report for it
+    private static String checkPath(FsWatcher watcher, String file) {
+        if (file == null) {
+            return "invalid path";
+        }
+        return watcher.isWatched(new File(file)) ? null : "not in a watched graph";
+    }
+
+    // bytes of s in UTF-8, without encoding it; chunkMaxBytes caps bytes, not UTF-16 chars
+    static long utf8Length(String s) {
+        long bytes = 0;
+        int n = s.length();
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    // absolute path of a file:// or scheme-less uri, null for anything else
+    private static String toFilePath(String path) {
+        if (path == null || path.isEmpty()) {
+            return null;
+        }
+        Uri u = Uri.parse(path);
+        if (u.getScheme() != null && !u.getScheme().equals("file")) {
+            return null;
+        }
+        String p = u.getPath();
+        return p == null ? null : new File(p).getAbsolutePath();
+    }
+
+    private static JSObject toStat(StructStat stat) {
+        JSObject obj = new JSObject();
+        obj.put("type", OsConstants.S_ISDIR(stat.st_mode) ? "directory" : "file");
+        obj.put("size", stat.st_size);
+        obj.put("mtime", stat.st_mtime);
+        obj.put("ctime", stat.st_ctime);
+        return obj;
+    }
+}
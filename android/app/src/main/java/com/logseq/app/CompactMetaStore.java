@@ -0,0 +1,295 @@
+package com.logseq.app;
+
+import android.system.StructStat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// metaDb of the full polling scan without an object per file: directory paths are interned once,
+// an entry is its directory id, its name and stat fields in parallel primitive arrays, found through
+// an open-addressing table. A scan updates entries in place and marks them with the scan's epoch,
+// whatever wasn't marked is gone. Only changed files are turned into SimpleFileMetadata.
+//
+// Not thread-safe, owned by the scheduler thread.
+final class CompactMetaStore {
+    private static final int FREE = 0;
+    private static final int EMPTY = 0;
+    private static final int TOMBSTONE = -1;
+
+    // interned directories, null for a released id; released by sweep() once no entry is left in
+    // them, so renamed and deleted folders don't pile up over a long watch
+    private final List<String> mDirs = new ArrayList<>();
+    private final Map<String, Integer> mDirIds = new HashMap<>();
+    // live entries per directory id
+    private int[] mDirRefs = new int[64];
+    private int[] mFreeDirs = new int[16];
+    private int mFreeDirCount = 0;
+
+    // per slot
+    private int[] mDir;
+    private String[] mName;
+    private long[] mMtime;
+    private long[] mCtime;
+    private long[] mSize;
+    private long[] mIno;
+    private long[] mHash;
+    // epoch of the last scan that saw the entry, FREE for unused slots
+    private int[] mSeen;
+    private int mHigh = 0;
+    private int[] mFree = new int[16];
+    private int mFreeCount = 0;
+    private int mCount = 0;
+
+    // slot + 1, EMPTY or TOMBSTONE
+    private int[] mTable;
+    private int mTombstones = 0;
+
+    private int mEpoch = 1;
+
+    CompactMetaStore() {
+        this.allocate(1024);
+        mTable = new int[2048];
+    }
+
+    public int size() {
+        return mCount;
+    }
+
+    // slots are in [0, capacity()), only live ones hold an entry
+    public int capacity() {
+        return mHigh;
+    }
+
+    public boolean isLive(int slot) {
+        return mSeen[slot] != FREE;
+    }
+
+    public int dirId(String dir) {
+        Integer id = mDirIds.get(dir);
+        if (id == null) {
+            if (mFreeDirCount > 0) {
+                id = mFreeDirs[--mFreeDirCount];
+                mDirs.set(id, dir);
+            } else {
+                id = mDirs.size();
+                mDirs.add(dir);
+                if (id == mDirRefs.length) {
+                    mDirRefs = Arrays.copyOf(mDirRefs, id * 2);
+                }
+            }
+            mDirIds.put(dir, id);
+        }
+        return id;
+    }
+
+    // interned directories, released ones excluded
+    public int dirCount() {
+        return mDirIds.size();
+    }
+
+    // starts a scan, entries not touched until sweep() are removed by it
+    public void beginScan() {
+        mEpoch++;
+    }
+
+    public int find(int dir, String name) {
+        int mask = mTable.length - 1;
+        for (int i = hash(dir, name) & mask; ; i = (i + 1) & mask) {
+            int e = mTable[i];
+            if (e == EMPTY) {
+                return -1;
+            }
+            if (e != TOMBSTONE && mDir[e - 1] == dir && mName[e - 1].equals(name)) {
+                return e - 1;
+            }
+        }
+    }
+
+    // absolute path, -1 when not stored
+    public int find(String path) {
+        int sep = path.lastIndexOf('/');
+        Integer dir = sep < 0 ? null : mDirIds.get(path.substring(0, sep));
+        return dir == null ? -1 : this.find(dir, path.substring(sep + 1));
+    }
+
+    public int add(int dir, String name, StructStat stat) {
+        int slot = this.insert(dir, name);
+        this.set(slot, stat);
+        return slot;
+    }
+
+    public void put(String path, FsWatcher.SimpleFileMetadata metadata) {
+        int sep = path.lastIndexOf('/');
+        int dir = this.dirId(path.substring(0, sep));
+        String name = path.substring(sep + 1);
+        int slot = this.find(dir, name);
+        if (slot < 0) {
+            slot = this.insert(dir, name);
+        }
+        mMtime[slot] = metadata.mtime;
+        mCtime[slot] = metadata.ctime;
+        mSize[slot] = metadata.size;
+        mIno[slot] = metadata.ino;
+        mHash[slot] = metadata.hash;
+        mSeen[slot] = mEpoch;
+    }
+
+    public boolean isUnchanged(int slot, StructStat stat) {
+        return mMtime[slot] == stat.st_mtime && mCtime[slot] == stat.st_ctime
+            && mSize[slot] == stat.st_size && mIno[slot] == stat.st_ino;
+    }
+
+    // new stat for the entry, its content hash is unknown again
+    public void set(int slot, StructStat stat) {
+        mMtime[slot] = stat.st_mtime;
+        mCtime[slot] = stat.st_ctime;
+        mSize[slot] = stat.st_size;
+        mIno[slot] = stat.st_ino;
+        mHash[slot] = 0;
+        mSeen[slot] = mEpoch;
+    }
+
+    public void touch(int slot) {
+        mSeen[slot] = mEpoch;
+    }
+
+    public void setHash(int slot, long hash) {
+        mHash[slot] = hash;
+    }
+
+    public String path(int slot) {
+        return mDirs.get(mDir[slot]) + "/" + mName[slot];
+    }
+
+    public FsWatcher.SimpleFileMetadata get(int slot) {
+        return new FsWatcher.SimpleFileMetadata(mMtime[slot], mCtime[slot], mSize[slot], mIno[slot], mHash[slot]);
+    }
+
+    public long mtime(int slot) {
+        return mMtime[slot];
+    }
+
+    public long ctime(int slot) {
+        return mCtime[slot];
+    }
+
+    public long size(int slot) {
+        return mSize[slot];
+    }
+
+    public long ino(int slot) {
+        return mIno[slot];
+    }
+
+    public long hash(int slot) {
+        return mHash[slot];
+    }
+
+    // removes entries the current scan didn't touch, collecting them into removed if not null
+    public void sweep(Map<String, FsWatcher.SimpleFileMetadata> removed) {
+        for (int slot = 0; slot < mHigh; slot++) {
+            if (mSeen[slot] != FREE && mSeen[slot] != mEpoch) {
+                if (removed != null) {
+                    removed.put(this.path(slot), this.get(slot));
+                }
+                this.remove(slot);
+            }
+        }
+        for (int dir = 0; dir < mDirs.size(); dir++) {
+            if (mDirRefs[dir] == 0 && mDirs.get(dir) != null) {
+                mDirIds.remove(mDirs.get(dir));
+                mDirs.set(dir, null);
+                if (mFreeDirCount == mFreeDirs.length) {
+                    mFreeDirs = Arrays.copyOf(mFreeDirs, mFreeDirs.length * 2);
+                }
+                mFreeDirs[mFreeDirCount++] = dir;
+            }
+        }
+    }
+
+    private int insert(int dir, String name) {
+        int slot;
+        if (mFreeCount > 0) {
+            slot = mFree[--mFreeCount];
+        } else {
+            if (mHigh == mDir.length) {
+                this.allocate(mDir.length + (mDir.length >> 1));
+            }
+            slot = mHigh++;
+        }
+        mDir[slot] = dir;
+        mName[slot] = name;
+        mSeen[slot] = mEpoch;
+        mDirRefs[dir]++;
+        mCount++;
+
+        if ((mCount + mTombstones) * 2 > mTable.length) {
+            // links the new slot too, and drops the tombstones
+            this.rehash(mCount * 4 > mTable.length ? mTable.length * 2 : mTable.length);
+        } else {
+            this.link(slot);
+        }
+        return slot;
+    }
+
+    private void remove(int slot) {
+        int mask = mTable.length - 1;
+        for (int i = hash(mDir[slot], mName[slot]) & mask; ; i = (i + 1) & mask) {
+            if (mTable[i] == slot + 1) {
+                mTable[i] = TOMBSTONE;
+                mTombstones++;
+                break;
+            }
+        }
+        mName[slot] = null;
+        mSeen[slot] = FREE;
+        mDirRefs[mDir[slot]]--;
+        mCount--;
+        if (mFreeCount == mFree.length) {
+            mFree = Arrays.copyOf(mFree, mFree.length * 2);
+        }
+        mFree[mFreeCount++] = slot;
+    }
+
+    private void link(int slot) {
+        int mask = mTable.length - 1;
+        int i = hash(mDir[slot], mName[slot]) & mask;
+        while (mTable[i] > 0) {
+            i = (i + 1) & mask;
+        }
+        if (mTable[i] == TOMBSTONE) {
+            mTombstones--;
+        }
+        mTable[i] = slot + 1;
+    }
+
+    private void rehash(int size) {
+        mTable = new int[size];
+        mTombstones = 0;
+        for (int slot = 0; slot < mHigh; slot++) {
+            if (mSeen[slot] != FREE) {
+                this.link(slot);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        mDir = mDir == null ? new int[capacity] : Arrays.copyOf(mDir, capacity);
+        mName = mName == null ? new String[capacity] : Arrays.copyOf(mName, capacity);
+        mMtime = mMtime == null ? new long[capacity] : Arrays.copyOf(mMtime, capacity);
+        mCtime = mCtime == null ? new long[capacity] : Arrays.copyOf(mCtime, capacity);
+        mSize = mSize == null ? new long[capacity] : Arrays.copyOf(mSize, capacity);
+        mIno = mIno == null ? new long[capacity] : Arrays.copyOf(mIno, capacity);
+        mHash = mHash == null ? new long[capacity] : Arrays.copyOf(mHash, capacity);
+        mSeen = mSeen == null ? new int[capacity] : Arrays.copyOf(mSeen, capacity);
+    }
+
+    private static int hash(int dir, String name) {
+        int h = dir * 0x9E3779B9 + name.hashCode();
+        // spread the low bits, the table is indexed by them
+        return h ^ (h >>> 16);
+    }
+}
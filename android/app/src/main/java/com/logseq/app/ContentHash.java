@@ -0,0 +1,110 @@
+package com.logseq.app;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+// XXH64 (seed 0) of file contents, fast and good enough to tell whether bytes really changed.
+// https://github.com/Cyan4973/xxHash/blob/dev/doc/xxhash_spec.md
+final class ContentHash {
+    private static final long P1 = 0x9E3779B185EBCA87L;
+    private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long P3 = 0x165667B19E3779F9L;
+    private static final long P4 = 0x85EBCA77C2B2AE63L;
+    private static final long P5 = 0x27D4EB2F165667C5L;
+
+    private static final int BUFFER_SIZE = 64 * 1024; // multiple of the 32 bytes stripe
+
+    private static final ThreadLocal<ByteBuffer> BUFFER = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    };
+
+    private ContentHash() {
+    }
+
+    public static long hash(File file) throws IOException {
+        ByteBuffer buffer = BUFFER.get();
+        try (FileInputStream in = new FileInputStream(file); FileChannel channel = in.getChannel()) {
+            long v1 = P1 + P2;
+            long v2 = P2;
+            long v3 = 0;
+            long v4 = -P1;
+            long total = 0;
+            while (true) {
+                buffer.clear();
+                // fill the buffer completely, so only the last chunk has a partial stripe
+                while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+                }
+                buffer.flip();
+                total += buffer.remaining();
+                if (buffer.remaining() < BUFFER_SIZE) {
+                    break;
+                }
+                while (buffer.remaining() >= 32) {
+                    v1 = round(v1, buffer.getLong());
+                    v2 = round(v2, buffer.getLong());
+                    v3 = round(v3, buffer.getLong());
+                    v4 = round(v4, buffer.getLong());
+                }
+            }
+
+            // last chunk, stripes first
+            boolean hasStripes = total >= 32;
+            while (buffer.remaining() >= 32) {
+                v1 = round(v1, buffer.getLong());
+                v2 = round(v2, buffer.getLong());
+                v3 = round(v3, buffer.getLong());
+                v4 = round(v4, buffer.getLong());
+            }
+
+            long h;
+            if (hasStripes) {
+                h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+                h = mergeRound(h, v1);
+                h = mergeRound(h, v2);
+                h = mergeRound(h, v3);
+                h = mergeRound(h, v4);
+            } else {
+                h = P5;
+            }
+            h += total;
+
+            while (buffer.remaining() >= 8) {
+                h ^= round(0, buffer.getLong());
+                h = Long.rotateLeft(h, 27) * P1 + P4;
+            }
+            if (buffer.remaining() >= 4) {
+                h ^= (buffer.getInt() & 0xFFFFFFFFL) * P1;
+                h = Long.rotateLeft(h, 23) * P2 + P3;
+            }
+            while (buffer.hasRemaining()) {
+                h ^= (buffer.get() & 0xFF) * P5;
+                h = Long.rotateLeft(h, 11) * P1;
+            }
+
+            h ^= h >>> 33;
+            h *= P2;
+            h ^= h >>> 29;
+            h *= P3;
+            h ^= h >>> 32;
+            return h;
+        }
+    }
+
+    private static long round(long acc, long input) {
+        acc += input * P2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * P1;
+    }
+
+    private static long mergeRound(long acc, long val) {
+        acc ^= round(0, val);
+        return acc * P1 + P4;
+    }
+}
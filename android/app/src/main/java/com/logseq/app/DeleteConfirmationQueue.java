@@ -0,0 +1,88 @@
+package com.logseq.app;
+
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Holds deletions for a grace period before they are reported, syncing net disks often remove
+// and re-create a file while updating it. Deadlines are grouped into small buckets, so deleting
+// a whole folder is confirmed by one existence pass on the scheduler thread.
+final class DeleteConfirmationQueue {
+    private static final long BUCKET_MS = 50;
+
+    interface Sink {
+        // paths still missing once their grace period is over
+        void onConfirmed(List<String> paths);
+    }
+
+    private final long mGracePeriod;
+    private final Sink mSink;
+    private final ScheduledExecutorService mExecutor;
+    private final TreeMap<Long, List<String>> mBuckets = new TreeMap<>();
+    private boolean mClosed = false;
+
+    DeleteConfirmationQueue(ScheduledExecutorService executor, long gracePeriod, Sink sink) {
+        mExecutor = executor;
+        mGracePeriod = gracePeriod;
+        mSink = sink;
+    }
+
+    public synchronized void enqueue(String path) {
+        if (mClosed) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long deadline = ((now + mGracePeriod) / BUCKET_MS + 1) * BUCKET_MS;
+        List<String> bucket = mBuckets.get(deadline);
+        if (bucket == null) {
+            bucket = new ArrayList<>();
+            mBuckets.put(deadline, bucket);
+            try {
+                mExecutor.schedule(() -> confirm(deadline), deadline - now, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // closed
+                return;
+            }
+        }
+        bucket.add(path);
+    }
+
+    // scheduled confirmations still fire, but find their buckets gone
+    public synchronized void close() {
+        mClosed = true;
+        mBuckets.clear();
+    }
+
+    private void confirm(long deadline) {
+        List<String> due = new ArrayList<>();
+        synchronized (this) {
+            Map<Long, List<String>> expired = mBuckets.headMap(deadline, true);
+            for (List<String> bucket : expired.values()) {
+                due.addAll(bucket);
+            }
+            expired.clear();
+        }
+        if (due.isEmpty()) {
+            return;
+        }
+
+        List<String> confirmed = new ArrayList<>(due.size());
+        for (String path : due) {
+            if (new File(path).exists()) {
+                Log.i("FsWatcher", "abandon delete notification due to file exists");
+            } else {
+                confirmed.add(path);
+            }
+        }
+        if (!confirmed.isEmpty()) {
+            mSink.onConfirmed(confirmed);
+        }
+    }
+}
@@ -0,0 +1,371 @@
+package com.logseq.app;
+
+import android.os.FileObserver;
+import android.util.Log;
+
+import com.getcapacitor.JSObject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Bounded queue between the watchers and the bridge. Events are built (and their files read) and
+// handed to notifyListeners on one sender thread, so a busy WebView slows down delivery instead of
+// the scans, and memory stays bounded:
+// - past the soft limit a new event is merged into the one already queued for its path
+// - past the hard limit a target's queued events are dropped for a single resync signal, its
+//   listener catches up through changesSince
+// Each priority class (see EventPriority) has its own FIFO, higher classes are always sent first.
+//
+// Priorities and merges mean events don't leave in journal generation order, so an event's own
+// generation says nothing about what's still queued. Every delivery comes with a watermark instead:
+// the highest generation such that every change up to it was delivered, or is still in the journal
+// for changesSince, with nothing older of the target left in the queue.
+final class EventDispatcher {
+    interface Target {
+        // 0 is sent first, < EventPriority.CLASSES
+        int priorityOf(WatcherEventBatcher.Pending pending);
+
+        // On the sender thread, events of this target only, in queue order. Once they are all
+        // delivered, changesSince(watermark) returns whatever else the listener hasn't seen.
+        void deliver(List<WatcherEventBatcher.Pending> events, long watermark);
+
+        // events of this target were dropped, changesSince(watermark) has them
+        void deliverResync(long watermark);
+    }
+
+    private static final class Item {
+        final Target target;
+        // null for a resync signal, event 0 once merged away
+        final WatcherEventBatcher.Pending pending;
+        // lowest generation the item stands for, see Pending.firstGeneration; for a resync signal
+        // the lowest of the events it replaced
+        long first;
+
+        Item(Target target, WatcherEventBatcher.Pending pending, long first) {
+            this.target = target;
+            this.pending = pending;
+            this.first = first;
+        }
+    }
+
+    // what is queued for one target
+    private static final class Queued {
+        // last queued item per path, what a new event can be merged into
+        final Map<String, Item> latest = new HashMap<>();
+        // Item.first of every live queued item with its count, the lowest bounds the watermark
+        final TreeMap<Long, Integer> firsts = new TreeMap<>();
+        // highest generation handed to enqueue
+        long enqueued = 0;
+        // queued resync signal, dropped events are covered by it
+        Item resync;
+
+        void add(long first) {
+            Integer count = firsts.get(first);
+            firsts.put(first, count == null ? 1 : count + 1);
+        }
+
+        void remove(long first) {
+            Integer count = firsts.get(first);
+            if (count == null) {
+                return;
+            }
+            if (count == 1) {
+                firsts.remove(first);
+            } else {
+                firsts.put(first, count - 1);
+            }
+        }
+
+        long watermark() {
+            return firsts.isEmpty() ? enqueued : Math.min(enqueued, firsts.firstKey() - 1);
+        }
+    }
+
+    // consecutive items of one target taken from the queue together
+    private static final class Group {
+        final Target target;
+        final List<WatcherEventBatcher.Pending> events = new ArrayList<>();
+        final boolean resync;
+        long first = Long.MAX_VALUE;
+        long watermark;
+
+        Group(Target target, boolean resync) {
+            this.target = target;
+            this.resync = resync;
+        }
+    }
+
+    private final int mSoftLimit;
+    private final int mHardLimit;
+    private final int mChunkSize;
+    private final ArrayDeque<Item>[] mQueues;
+    private final Map<Target, Queued> mTargets = new HashMap<>();
+    private final Thread mThread;
+    private boolean mClosed = false;
+
+    // live items in mQueue
+    private int mDepth = 0;
+    private int mMaxDepth = 0;
+    private long mMerged = 0;
+    private long mDropped = 0;
+    private long mResyncs = 0;
+
+    EventDispatcher(int softLimit, int hardLimit, int chunkSize) {
+        mSoftLimit = softLimit;
+        mHardLimit = Math.max(softLimit, hardLimit);
+        mChunkSize = chunkSize;
+        mQueues = newQueues(EventPriority.CLASSES);
+        mThread = new Thread(this::run, "FsWatcher-dispatch");
+        mThread.start();
+    }
+
+    public synchronized void enqueue(Target target, WatcherEventBatcher.Pending pending) {
+        if (mClosed) {
+            return;
+        }
+        Queued queued = mTargets.get(target);
+        if (queued == null) {
+            queued = new Queued();
+            mTargets.put(target, queued);
+        }
+        queued.enqueued = Math.max(queued.enqueued, pending.generation);
+        if (queued.resync != null) {
+            mDropped++;
+            this.lower(queued, queued.resync, pending.firstGeneration);
+            return;
+        }
+
+        if (mDepth >= mSoftLimit) {
+            Item prev = queued.latest.get(pending.path);
+            if (prev != null && mergeInto(prev.pending, pending)) {
+                mMerged++;
+                if (prev.pending.event == 0) {
+                    queued.latest.remove(pending.path);
+                    queued.remove(prev.first);
+                    mDepth--;
+                } else {
+                    // keeps its place in the queue, so it must keep holding the watermark back
+                    this.lower(queued, prev, pending.firstGeneration);
+                }
+                return;
+            }
+            if (mDepth >= mHardLimit) {
+                this.overflow(target, queued, pending.firstGeneration);
+                return;
+            }
+        }
+
+        Item item = new Item(target, pending, pending.firstGeneration);
+        mQueues[target.priorityOf(pending)].add(item);
+        queued.latest.put(pending.path, item);
+        queued.add(item.first);
+        mDepth++;
+        mMaxDepth = Math.max(mMaxDepth, mDepth);
+        this.notifyAll();
+    }
+
+    public synchronized void enqueueAll(Target target, List<WatcherEventBatcher.Pending> events) {
+        for (WatcherEventBatcher.Pending pending : events) {
+            this.enqueue(target, pending);
+        }
+    }
+
+    public synchronized void putStats(JSObject stats) {
+        stats.put("queueDepth", mDepth);
+        stats.put("maxQueueDepth", mMaxDepth);
+        stats.put("mergedEvents", mMerged);
+        stats.put("droppedEvents", mDropped);
+        stats.put("resyncs", mResyncs);
+    }
+
+    // drops whatever is queued for target, e.g. an unwatched root
+    public synchronized void forget(Target target) {
+        for (ArrayDeque<Item> queue : mQueues) {
+            Iterator<Item> it = queue.iterator();
+            while (it.hasNext()) {
+                Item item = it.next();
+                if (item.target == target) {
+                    it.remove();
+                    if (item.pending == null || item.pending.event != 0) {
+                        mDepth--;
+                    }
+                }
+            }
+        }
+        mTargets.remove(target);
+    }
+
+    public synchronized void close() {
+        mClosed = true;
+        for (ArrayDeque<Item> queue : mQueues) {
+            queue.clear();
+        }
+        mTargets.clear();
+        this.notifyAll();
+    }
+
+    // renames carry two paths and are never merged, the rest as in WatcherEventBatcher
+    private static boolean mergeInto(WatcherEventBatcher.Pending prev, WatcherEventBatcher.Pending next) {
+        if (prev.event == FileObserver.MOVED_TO || next.event == FileObserver.MOVED_TO) {
+            return false;
+        }
+        prev.event = WatcherEventBatcher.merge(prev.event, next.event);
+        if (next.metadata != null) {
+            prev.metadata = next.metadata;
+        }
+        prev.generation = Math.max(prev.generation, next.generation);
+        prev.firstGeneration = Math.min(prev.firstGeneration, next.firstGeneration);
+        return true;
+    }
+
+    // holding the lock, item now also stands for first
+    private void lower(Queued queued, Item item, long first) {
+        if (first < item.first) {
+            queued.remove(item.first);
+            item.first = first;
+            queued.add(first);
+        }
+    }
+
+    // holding the lock, first is the event that didn't fit
+    private void overflow(Target target, Queued queued, long first) {
+        for (ArrayDeque<Item> queue : mQueues) {
+            Iterator<Item> it = queue.iterator();
+            while (it.hasNext()) {
+                Item item = it.next();
+                if (item.target == target) {
+                    it.remove();
+                    if (item.pending != null && item.pending.event != 0) {
+                        mDepth--;
+                        mDropped++;
+                        first = Math.min(first, item.first);
+                    }
+                }
+            }
+        }
+        queued.latest.clear();
+        queued.firsts.clear();
+        mDropped++;
+
+        // ahead of everything else, there's no point in sending the target's other events first
+        Item resync = new Item(target, null, first);
+        mQueues[0].addFirst(resync);
+        queued.resync = resync;
+        queued.add(first);
+        mDepth++;
+        mResyncs++;
+        Log.w("FsWatcher", "dispatch queue full, resync required");
+        this.notifyAll();
+    }
+
+    // head of the highest non-empty class, holding the lock
+    private Item poll() {
+        for (ArrayDeque<Item> queue : mQueues) {
+            Item item = queue.poll();
+            if (item != null) {
+                return item;
+            }
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ArrayDeque<Item>[] newQueues(int count) {
+        ArrayDeque<Item>[] queues = new ArrayDeque[count];
+        for (int i = 0; i < count; i++) {
+            queues[i] = new ArrayDeque<>();
+        }
+        return queues;
+    }
+
+    private void run() {
+        while (true) {
+            List<Group> groups = new ArrayList<>();
+            synchronized (this) {
+                while (mDepth == 0 && !mClosed) {
+                    try {
+                        this.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (mClosed) {
+                    return;
+                }
+                int taken = 0;
+                Group group = null;
+                while (taken < mChunkSize && mDepth > 0) {
+                    Item item = this.poll();
+                    if (item == null) {
+                        break;
+                    }
+                    Queued queued = mTargets.get(item.target);
+                    if (item.pending == null) {
+                        if (queued != null) {
+                            queued.resync = null;
+                            queued.remove(item.first);
+                        }
+                        mDepth--;
+                    } else if (item.pending.event != 0) {
+                        if (queued != null) {
+                            if (queued.latest.get(item.pending.path) == item) {
+                                queued.latest.remove(item.pending.path);
+                            }
+                            queued.remove(item.first);
+                        }
+                        mDepth--;
+                    } else {
+                        continue;
+                    }
+                    taken++;
+
+                    // consecutive events of the same target go together
+                    if (group == null || group.target != item.target || group.resync || item.pending == null) {
+                        group = new Group(item.target, item.pending == null);
+                        groups.add(group);
+                    }
+                    if (item.pending != null) {
+                        group.events.add(item.pending);
+                    }
+                    group.first = Math.min(group.first, item.first);
+                }
+                this.setWatermarks(groups);
+            }
+
+            for (Group group : groups) {
+                try {
+                    if (group.resync) {
+                        group.target.deliverResync(group.watermark);
+                    } else {
+                        group.target.deliver(group.events, group.watermark);
+                    }
+                } catch (RuntimeException e) {
+                    Log.e("FsWatcher", "cannot deliver events", e);
+                }
+            }
+        }
+    }
+
+    // Holding the lock, with the groups already taken off the queue. A group's watermark is held
+    // back by what is still queued and by the target's groups delivered after it; a resync signal
+    // also by the events it replaced, which the listener only gets through changesSince.
+    private void setWatermarks(List<Group> groups) {
+        Map<Target, Long> later = new HashMap<>();
+        for (int i = groups.size() - 1; i >= 0; i--) {
+            Group group = groups.get(i);
+            Long watermark = later.get(group.target);
+            if (watermark == null) {
+                Queued queued = mTargets.get(group.target);
+                // forgotten, nothing will be delivered to it anyway
+                watermark = queued == null ? 0 : queued.watermark();
+            }
+            group.watermark = group.resync ? Math.min(watermark, group.first - 1) : watermark;
+            later.put(group.target, Math.min(watermark, group.first - 1));
+        }
+    }
+}
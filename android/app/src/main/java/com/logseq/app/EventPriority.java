@@ -0,0 +1,85 @@
+package com.logseq.app;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Which events of a root the dispatcher sends first, so after a mass sync the files a user is
+// looking at are current before thousands of unrelated ones:
+// 0. config and custom CSS (priorityPaths)
+// 1. today's and recent journals, by the date in their file name
+// 2. pages
+// 3. everything else
+final class EventPriority {
+    public static final int CLASSES = 4;
+
+    static final List<String> DEFAULT_PATHS = Arrays.asList(
+        "logseq/config.edn",
+        "logseq/custom.css"
+    );
+
+    private static final long DAY_MS = 24 * 60 * 60 * 1000;
+    // yyyy_MM_dd, yyyy-MM-dd, yyyyMMdd and the like
+    private static final Pattern JOURNAL_DATE = Pattern.compile("(\\d{4})[-_.]?(\\d{2})[-_.]?(\\d{2})");
+
+    private final Pattern[] mFirst;
+    private final String mJournalsPrefix;
+    private final String mPagesPrefix;
+    private final int mRecentDays;
+
+    // globs relative to the root, as in IgnoreRules
+    EventPriority(List<String> firstPaths, String journalsDir, String pagesDir, int recentDays) {
+        List<Pattern> first = new ArrayList<>();
+        for (String glob : firstPaths) {
+            String trimmed = glob.trim();
+            if (!trimmed.isEmpty()) {
+                first.add(Pattern.compile(IgnoreRules.toRegex(trimmed.startsWith("/") ? trimmed.substring(1) : trimmed)));
+            }
+        }
+        mFirst = first.toArray(new Pattern[0]);
+        mJournalsPrefix = journalsDir + "/";
+        mPagesPrefix = pagesDir + "/";
+        mRecentDays = recentDays;
+    }
+
+    // relpath is relative to the root, with / separators
+    public int classify(String relpath) {
+        for (Pattern pattern : mFirst) {
+            if (pattern.matcher(relpath).matches()) {
+                return 0;
+            }
+        }
+        if (relpath.startsWith(mJournalsPrefix)) {
+            return isRecentJournal(relpath.substring(relpath.lastIndexOf('/') + 1)) ? 1 : 2;
+        }
+        if (relpath.startsWith(mPagesPrefix)) {
+            return 2;
+        }
+        return 3;
+    }
+
+    private boolean isRecentJournal(String name) {
+        Matcher m = JOURNAL_DATE.matcher(name);
+        if (!m.find()) {
+            return false;
+        }
+        long day = daysFromCivil(Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2)), Integer.parseInt(m.group(3)));
+        long now = System.currentTimeMillis();
+        long today = (now + TimeZone.getDefault().getOffset(now)) / DAY_MS;
+        // tomorrow's journal too, it may already exist around midnight
+        return day <= today + 1 && today - day <= mRecentDays;
+    }
+
+    // days since 1970-01-01 of a proleptic Gregorian date
+    static long daysFromCivil(int y, int m, int d) {
+        y -= m <= 2 ? 1 : 0;
+        long era = (y >= 0 ? y : y - 399) / 400;
+        long yoe = y - era * 400;
+        long doy = (153 * (m + (m > 2 ? -3 : 9)) + 2) / 5 + d - 1;
+        long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+}
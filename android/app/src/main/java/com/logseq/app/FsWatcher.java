@@ -2,6 +2,7 @@ package com.logseq.app;
 
 import android.system.ErrnoException;
 import android.system.Os;
+import android.system.OsConstants;
 import android.system.StructStat;
 import android.util.Log;
 import android.os.FileObserver;
@@ -11,14 +12,37 @@ import android.net.Uri;
 import java.io.*;
 
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.text.Normalizer;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
 import java.util.Stack;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
 import java.io.File;
+import java.math.BigInteger;
 
+import com.getcapacitor.JSArray;
 import com.getcapacitor.JSObject;
 import com.getcapacitor.Plugin;
 import com.getcapacitor.annotation.CapacitorPlugin;
@@ -27,281 +51,2253 @@ import com.getcapacitor.PluginCall;
 
 @CapacitorPlugin(name = "FsWatcher")
 public class FsWatcher extends Plugin {
-    private String mPath;
-    private PollingFsWatcher mWatcher;
-    private Thread mThread;
+    private static final long SNAPSHOT_SAVE_INTERVAL_MS = 60 * 1000;
+    // queued events, past the soft limit they're merged per path, past the hard limit a root resyncs
+    private static final int DISPATCH_SOFT_LIMIT = 2000;
+    private static final int DISPATCH_HARD_LIMIT = 10000;
+    // events taken off the queue at once, a batching root sends them as one watcherBatch
+    private static final int DISPATCH_CHUNK_SIZE = 200;
+    // polling roots watched together start this far apart
+    private static final long START_STAGGER_MS = 500;
+    // bigger files are never fingerprinted, their changes are always reported
+    private static final long CONTENT_HASH_MAX_SIZE = 16 * 1024 * 1024;
+    // saves arriving within this long of each other share a commit
+    private static final long WRITE_COMMIT_WINDOW_MS = 25;
+    // files whose content is sent along with their events
+    static final Pattern PARSEABLE_FILE = Pattern.compile("(?i)[^.].*?\\.(md|org|css|edn|js|markdown|excalidraw)$");
+
+    // watched graphs by absolute path
+    private final Map<String, WatchedRoot> mRoots = new ConcurrentHashMap<>();
+    // Every root ticks, flushes and confirms deletes on this one thread, so scans of different
+    // graphs never run at the same time and no root needs its own threads.
+    private ScheduledThreadPoolExecutor mScheduler;
+    // every root's events reach the bridge through this one queue
+    private EventDispatcher mDispatcher;
+    // snapshot() walks and reads whole graphs, kept off the scheduler so watching isn't held up
+    private ExecutorService mSnapshotExecutor;
+    // parseOutline reads a handful of pages for the editor, its own thread so it isn't queued
+    // behind a snapshot() of a whole graph
+    private ExecutorService mOutlineExecutor;
+    // parallelScan walks of every root, created on first use; roots tick one at a time on
+    // mScheduler, so a single pool sized for the device is enough
+    private ForkJoinPool mScanPool;
+    private GroupCommitWriter mWriter;
+    private final AtomicInteger mSnapshotIds = new AtomicInteger();
+    static final WatcherMetrics METRICS = new WatcherMetrics();
+    private ScheduledFuture<?> mStatsFuture;
+    private final AtomicLong mSuppressedEvents = new AtomicLong();
+    private final AtomicLong mEchoEvents = new AtomicLong();
 
     @Override
     public void load() {
+        mScheduler = new ScheduledThreadPoolExecutor(1);
+        mScheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        mScheduler.setRemoveOnCancelPolicy(true);
+        mDispatcher = new EventDispatcher(DISPATCH_SOFT_LIMIT, DISPATCH_HARD_LIMIT, DISPATCH_CHUNK_SIZE);
+        mSnapshotExecutor = Executors.newSingleThreadExecutor();
+        mOutlineExecutor = Executors.newSingleThreadExecutor();
+        mWriter = new GroupCommitWriter(WRITE_COMMIT_WINDOW_MS);
         Log.i("FsWatcher", "Android fs-watcher loaded!");
     }
 
     @PluginMethod()
     public void watch(PluginCall call) {
         String pathParam = call.getString("path");
-        // check file:// or no scheme uris
-        Uri u = Uri.parse(pathParam);
-        Log.i("FsWatcher", "watching " + u);
-        // TODO: handle context:// uri
-        if (u.getScheme() == null || u.getScheme().equals("file")) {
-            File pathObj;
-            try {
-                pathObj = new File(u.getPath());
-            } catch (Exception e) {
-                call.reject("invalid watch path: " + pathParam);
+        Log.i("FsWatcher", "watching " + pathParam);
+        String path = parseWatchPath(call, pathParam);
+        if (path == null) {
+            return;
+        }
+
+        synchronized (mRoots) {
+            if (mRoots.containsKey(path)) {
+                call.reject("already watching " + path);
                 return;
             }
 
-            mPath = pathObj.getAbsolutePath();
+            WatchOptions options = new WatchOptions(call, getContext().getNoBackupFilesDir());
+            // spread the polling ticks of several graphs over the interval
+            long startDelay = mRoots.size() * START_STAGGER_MS;
+            WatchedRoot root = new WatchedRoot(path, options);
+            mRoots.put(path, root);
+            root.start(startDelay);
+        }
+
+        call.resolve();
+    }
 
-            if (mWatcher != null) {
-                call.reject("already watching");
-                return;
+    // without a path every graph is unwatched
+    @PluginMethod()
+    public void unwatch(PluginCall call) {
+        String pathParam = call.getString("path");
+        if (pathParam == null) {
+            Log.i("FsWatcher", "unwatch all...");
+            synchronized (mRoots) {
+                for (WatchedRoot root : mRoots.values()) {
+                    root.stop();
+                }
+                mRoots.clear();
             }
+            call.resolve();
+            return;
+        }
 
-            mWatcher = new PollingFsWatcher(mPath);
-            mThread = new Thread(mWatcher);
-            mThread.start();
+        String path = parseWatchPath(call, pathParam);
+        if (path == null) {
+            return;
+        }
+        Log.i("FsWatcher", "unwatch " + path);
+        WatchedRoot root = mRoots.remove(path);
+        if (root != null) {
+            root.stop();
+        }
+        call.resolve();
+    }
 
-            call.resolve();
-        } else {
+    // file:// or no scheme uris, rejects the call and returns null for anything else
+    private static String parseWatchPath(PluginCall call, String pathParam) {
+        if (pathParam == null) {
+            call.reject("missing path");
+            return null;
+        }
+        Uri u = Uri.parse(pathParam);
+        // TODO: handle context:// uri
+        if (u.getScheme() != null && !u.getScheme().equals("file")) {
             call.reject(u.getScheme() + " scheme not supported");
+            return null;
+        }
+        try {
+            return new File(u.getPath()).getAbsolutePath();
+        } catch (Exception e) {
+            call.reject("invalid watch path: " + pathParam);
+            return null;
         }
     }
 
     @PluginMethod()
-    public void unwatch(PluginCall call) {
-        Log.i("FsWatcher", "unwatch all...");
-
-        if (mWatcher != null) {
-            mThread.interrupt();
-            mWatcher = null;
+    public void readContent(PluginCall call) {
+        File file = resolveWatchedFile(call.getString("dir"), call.getString("path"));
+        if (file == null) {
+            call.reject("invalid path: " + call.getString("path"));
+            return;
         }
 
-        call.resolve();
+        long offset = call.getLong("offset", 0L);
+        long length = call.getLong("length", -1L);
+        try {
+            JSObject ret = new JSObject();
+            ret.put("content", readRange(file, offset, length));
+            ret.put("size", file.length());
+            call.resolve(ret);
+        } catch (IOException e) {
+            call.reject("error reading file: " + e.getMessage());
+        }
     }
 
-    // add, change, unlink events
-    public void onObserverEvent(int event, String path, SimpleFileMetadata metadata) {
-        JSObject obj = new JSObject();
-        String content = null;
-        File f = new File(path);
+    @PluginMethod()
+    public void readContents(PluginCall call) {
+        JSArray paths = call.getArray("paths");
+        if (paths == null) {
+            call.reject("missing paths");
+            return;
+        }
+
+        String dir = call.getString("dir");
+        JSArray files = new JSArray();
+        for (int i = 0; i < paths.length(); i++) {
+            String path = paths.optString(i);
+            JSObject obj = new JSObject();
+            obj.put("path", path);
+            File file = resolveWatchedFile(dir, path);
+            if (file == null) {
+                obj.put("error", "invalid path");
+            } else {
+                try {
+                    obj.put("content", getFileContents(file));
+                } catch (IOException e) {
+                    obj.put("error", e.getMessage());
+                }
+            }
+            files.put(obj);
+        }
+        JSObject ret = new JSObject();
+        ret.put("files", files);
+        call.resolve(ret);
+    }
 
-        boolean shouldRead = false;
-        if (Pattern.matches("(?i)[^.].*?\\.(md|org|css|edn|js|markdown|excalidraw)$", f.getName())) {
-            shouldRead = true;
+    // Block outlines of Markdown and Org files, as attached to events with the outline option:
+    // {files: [{path, outline} | {path, error}]}. Paths as in readContents.
+    @PluginMethod()
+    public void parseOutline(PluginCall call) {
+        JSArray paths = call.getArray("paths");
+        if (paths == null) {
+            call.reject("missing paths");
+            return;
         }
 
-        Uri dir = Uri.fromFile(new File(mPath));
-        Uri fpath = Uri.fromFile(f);
-        String relpath = null;
+        String dir = call.getString("dir");
+        try {
+            mOutlineExecutor.execute(() -> {
+                JSArray files = new JSArray();
+                for (int i = 0; i < paths.length(); i++) {
+                    String path = paths.optString(i);
+                    JSObject obj = new JSObject();
+                    obj.put("path", path);
+                    File file = resolveWatchedFile(dir, path);
+                    if (file == null || !BlockOutliner.isOutlined(file.getName())) {
+                        obj.put("error", file == null ? "invalid path" : "not a Markdown or Org file");
+                    } else {
+                        try {
+                            String content = getFileContents(file);
+                            obj.put("outline", BlockOutliner.parse(content, file.getName().toLowerCase().endsWith(".org")).toJSObject());
+                        } catch (IOException e) {
+                            obj.put("error", e.getMessage());
+                        }
+                    }
+                    files.put(obj);
+                }
+                JSObject ret = new JSObject();
+                ret.put("files", files);
+                call.resolve(ret);
+            });
+        } catch (RejectedExecutionException e) {
+            call.reject("plugin destroyed");
+        }
+    }
 
-        if (fpath.getPath().startsWith(dir.getPath())) {
-            relpath = fpath.getPath().substring(dir.getPath().length());
-            if (relpath.startsWith("/")) {
-                relpath = relpath.substring(1);
+    // Paths are relative to the watched dir, as in events. dir is the event's dir and may be
+    // left out while a single graph is watched.
+    private File resolveWatchedFile(String dir, String relpath) {
+        WatchedRoot watched = findRoot(dir);
+        if (watched == null || relpath == null) {
+            return null;
+        }
+        String root = watched.path;
+        File file = new File(root, relpath);
+        try {
+            String canonical = file.getCanonicalPath();
+            if (!canonical.startsWith(new File(root).getCanonicalPath() + "/")) {
+                return null;
             }
-        } else {
-            Log.e("FsWatcher", "file path not under watch path");
+        } catch (IOException e) {
+            return null;
+        }
+        return file;
+    }
+
+    // Pull side of the events: what changed in a graph after the given generation, for listeners
+    // that may have missed pushed events. generation 0 returns everything still in the journal.
+    // Pass the watermark of the last watcher, watcherBatch or resyncRequired event received, not
+    // the generation of an event: events are sent by priority, not in generation order, and an
+    // event's generation can be ahead of changes still queued.
+    @PluginMethod()
+    public void changesSince(PluginCall call) {
+        WatchedRoot root = findRoot(call.getString("dir"));
+        if (root == null) {
+            call.reject("not watching " + call.getString("dir"));
+            return;
+        }
+        call.resolve(root.changesSince(call.getLong("generation", 0L)));
+    }
+
+    // The app is about to write, or just wrote, path (relative, as in events). The change it causes
+    // is not reported back. size is required; mtime (seconds, as in event stats) and/or hash (as in
+    // lazy content events) narrow the match down.
+    @PluginMethod()
+    public void registerLocalWrite(PluginCall call) {
+        WatchedRoot root = findRoot(call.getString("dir"));
+        File file = resolveWatchedFile(call.getString("dir"), call.getString("path"));
+        Long size = call.getLong("size");
+        if (root == null || file == null || size == null) {
+            call.reject("invalid path: " + call.getString("path"));
             return;
         }
 
+        String hash = call.getString("hash");
+        try {
+            root.registerLocalWrite(file, size, call.getLong("mtime", -1L), hash == null ? 0 : new BigInteger(hash, 16).longValue());
+        } catch (NumberFormatException e) {
+            call.reject("invalid hash: " + hash);
+            return;
+        } catch (IOException e) {
+            call.reject("invalid path: " + call.getString("path"));
+            return;
+        }
+        call.resolve();
+    }
 
-        obj.put("path", Normalizer.normalize(relpath, Normalizer.Form.NFC));
-        obj.put("dir", Uri.fromFile(new File(mPath))); // Uri is for Android. URI is for RFC compatible
-        JSObject stat;
+    // Writes content (UTF-8) to path atomically and registers the write, the watcher won't echo
+    // it. Resolves with the file's stat once it's durable, or with {superseded: true} when a newer
+    // write to the same path replaced this one before it reached the disk.
+    @PluginMethod()
+    public void writeFile(PluginCall call) {
+        WatchedRoot root = findRoot(call.getString("dir"));
+        File file = resolveWatchedFile(call.getString("dir"), call.getString("path"));
+        String content = call.getString("content");
+        if (root == null || file == null || content == null) {
+            call.reject("invalid path: " + call.getString("path"));
+            return;
+        }
 
-        switch (event) {
-            case FileObserver.MODIFY:
-                obj.put("event", "change");
-                stat = new JSObject();
-                stat.put("mtime", metadata.mtime);
-                stat.put("ctime", metadata.ctime);
-                stat.put("size", metadata.size);
-                obj.put("stat", stat);
-                if (shouldRead) {
-                    try {
-                        content = getFileContents(f);
-                    } catch (IOException e) {
-                        Log.e("FsWatcher", "error reading modified file");
-                        e.printStackTrace();
-                    }
+        mWriter.write(file, content.getBytes(StandardCharsets.UTF_8), new GroupCommitWriter.Callback() {
+            @Override
+            public void onSynced(StructStat stat) {
+                try {
+                    root.registerLocalWrite(file, stat.st_size, stat.st_mtime, 0);
+                } catch (IOException e) {
+                    Log.w("FsWatcher", "cannot register write of " + file, e);
                 }
+            }
 
-                Log.i("FsWatcher", "prepare event " + obj);
-                obj.put("content", content);
-                break;
-            case FileObserver.CREATE:
-                obj.put("event", "add");
-                stat = new JSObject();
-                stat.put("mtime", metadata.mtime);
-                stat.put("ctime", metadata.ctime);
-                stat.put("size", metadata.size);
-                obj.put("stat", stat);
-                if (shouldRead) {
+            @Override
+            public void onCommitted(StructStat stat) {
+                JSObject s = new JSObject();
+                s.put("mtime", stat.st_mtime);
+                s.put("ctime", stat.st_ctime);
+                s.put("size", stat.st_size);
+                JSObject ret = new JSObject();
+                ret.put("stat", s);
+                call.resolve(ret);
+            }
+
+            @Override
+            public void onSuperseded() {
+                JSObject ret = new JSObject();
+                ret.put("superseded", true);
+                call.resolve(ret);
+            }
+
+            @Override
+            public void onFailed(Exception e) {
+                call.reject("error writing file: " + e.getMessage());
+            }
+        });
+    }
+
+    // whether file lies inside a watched graph, symlinks resolved; other plugins (BulkFs) only touch
+    // those, as the plugin's own methods only take paths relative to a watched root
+    boolean isWatched(File file) {
+        String path;
+        try {
+            path = file.getCanonicalPath();
+        } catch (IOException e) {
+            return false;
+        }
+        for (WatchedRoot root : mRoots.values()) {
+            if (path.startsWith(root.canonicalPath + "/")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Writes for other plugins (BulkFs) through the same group-commit writer as writeFile, registered
+    // with every watched root containing file so none of their watchers echoes it.
+    void writeLocal(File file, byte[] content, GroupCommitWriter.Callback callback) {
+        String path;
+        try {
+            path = file.getCanonicalPath();
+        } catch (IOException e) {
+            callback.onFailed(e);
+            return;
+        }
+        List<WatchedRoot> roots = new ArrayList<>();
+        for (WatchedRoot root : mRoots.values()) {
+            if (path.startsWith(root.canonicalPath + "/")) {
+                roots.add(root);
+            }
+        }
+
+        mWriter.write(file, content, new GroupCommitWriter.Callback() {
+            @Override
+            public void onSynced(StructStat stat) {
+                for (WatchedRoot root : roots) {
                     try {
-                        content = getFileContents(f);
+                        root.registerLocalWrite(file, stat.st_size, stat.st_mtime, 0);
                     } catch (IOException e) {
-                        Log.e("FsWatcher", "error reading new file");
-                        e.printStackTrace();
+                        Log.w("FsWatcher", "cannot register write of " + file, e);
                     }
                 }
-                obj.put("content", content);
-                break;
-            case FileObserver.DELETE:
-                if (f.exists()) {
-                    Log.i("FsWatcher", "abandon delete notification due to file exists");
-                    return;
-                } else {
-                    obj.put("event", "unlink");
+                callback.onSynced(stat);
+            }
+
+            @Override
+            public void onCommitted(StructStat stat) {
+                callback.onCommitted(stat);
+            }
+
+            @Override
+            public void onSuperseded() {
+                callback.onSuperseded();
+            }
+
+            @Override
+            public void onFailed(Exception e) {
+                callback.onFailed(e);
+            }
+        });
+    }
+
+    // Streams a graph's whole tree, e.g. when it's opened for the first time: snapshotChunk events
+    // {id, dir, index, files: [{path, stat, content}], last} in path order, each followed by a
+    // snapshotProgress {id, dir, done, total}. content is only set for parseable files and only
+    // with includeContent. Resolves with {id, files, bytes, chunks} once the last chunk is out.
+    // The graph doesn't need to be watched, ignore takes the same patterns as watch().
+    @PluginMethod()
+    public void snapshot(PluginCall call) {
+        String path = parseWatchPath(call, call.getString("path"));
+        if (path == null) {
+            return;
+        }
+        String root;
+        try {
+            root = new File(path).getCanonicalPath();
+        } catch (IOException e) {
+            root = path;
+        }
+
+        List<String> patterns = new ArrayList<>();
+        JSArray ignore = call.getArray("ignore");
+        if (ignore != null) {
+            for (int i = 0; i < ignore.length(); i++) {
+                patterns.add(ignore.optString(i));
+            }
+        }
+
+        int id = mSnapshotIds.incrementAndGet();
+        Uri dir = Uri.fromFile(new File(path));
+        SnapshotStreamer streamer = new SnapshotStreamer(root, IgnoreRules.compile(root, patterns),
+            call.getBoolean("includeContent", true),
+            call.getInt("chunkMaxFiles", 500),
+            call.getInt("chunkMaxBytes", 2 * 1024 * 1024),
+            new SnapshotStreamer.Sink() {
+                @Override
+                public void onChunk(JSObject chunk) {
+                    chunk.put("id", id);
+                    chunk.put("dir", dir);
+                    notifyListeners("snapshotChunk", chunk);
                 }
-                Log.i("FsWatcher", "prepare event " + obj);
-                break;
-            default:
-                // unreachable?
-                obj.put("event", "unknown");
-                break;
+
+                @Override
+                public void onProgress(JSObject progress) {
+                    progress.put("id", id);
+                    progress.put("dir", dir);
+                    notifyListeners("snapshotProgress", progress);
+                }
+            });
+
+        try {
+            mSnapshotExecutor.execute(() -> {
+                JSObject ret = streamer.run();
+                ret.put("id", id);
+                call.resolve(ret);
+            });
+        } catch (RejectedExecutionException e) {
+            call.reject("plugin destroyed");
+        }
+    }
+
+    // dir as in events, may be left out while a single graph is watched
+    private WatchedRoot findRoot(String dir) {
+        if (dir == null) {
+            return mRoots.size() == 1 ? mRoots.values().iterator().next() : null;
         }
+        String path = Uri.parse(dir).getPath();
+        return path == null ? null : mRoots.get(new File(path).getAbsolutePath());
+    }
 
-        notifyListeners("watcher", obj);
+    // Blocks of the watched graphs matching query, from the native index (watch with fullTextIndex):
+    // {results: [{id, title, subtitle, path, start}], indexed}, id is the block's id:: or "" and
+    // subtitle its page, as taken by LiquidTabsPlugin.updateNativeSearchResults.
+    @PluginMethod()
+    public void search(PluginCall call) {
+        String query = call.getString("query", "");
+        List<FullTextIndex.Hit> hits = this.searchIndex(query, call.getInt("limit", 50));
+        JSArray results = new JSArray();
+        if (hits != null) {
+            for (FullTextIndex.Hit hit : hits) {
+                JSObject obj = new JSObject();
+                obj.put("id", hit.uuid == null ? "" : hit.uuid);
+                obj.put("title", hit.title);
+                obj.put("subtitle", hit.page);
+                obj.put("path", hit.path);
+                obj.put("start", hit.start);
+                results.put(obj);
+            }
+        }
+        JSObject ret = new JSObject();
+        ret.put("results", results);
+        ret.put("indexed", hits != null);
+        call.resolve(ret);
     }
 
-    public static String getFileContents(final File file) throws IOException {
-        InputStream inputStream = new FileInputStream(file);
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    // null when no watched graph is indexed, for the native search UI to fall back to JS
+    List<FullTextIndex.Hit> searchIndex(String query, int limit) {
+        List<FullTextIndex.Hit> hits = null;
+        for (WatchedRoot root : mRoots.values()) {
+            if (root.index != null) {
+                if (hits == null) {
+                    hits = new ArrayList<>();
+                }
+                hits.addAll(root.index.search(query, limit));
+            }
+        }
+        if (hits == null) {
+            return null;
+        }
+        // each root's hits are best first, the best of all of them are kept; stable, so roots
+        // keep their order on ties
+        hits.sort((a, b) -> Integer.compare(a.rank, b.rank));
+        return hits.size() > limit ? new ArrayList<>(hits.subList(0, limit)) : hits;
+    }
 
-        byte[] buffer = new byte[1024];
-        int length;
+    @PluginMethod()
+    public void getStats(PluginCall call) {
+        call.resolve(this.collectStats());
+    }
 
-        while ((length = inputStream.read(buffer)) != -1) {
-            outputStream.write(buffer, 0, length);
+    // interval ms between watcherStats events carrying what getStats returns, 0 stops them
+    @PluginMethod()
+    public void setStatsInterval(PluginCall call) {
+        int interval = call.getInt("interval", 0);
+        synchronized (this) {
+            if (mStatsFuture != null) {
+                mStatsFuture.cancel(false);
+                mStatsFuture = null;
+            }
+            if (interval > 0) {
+                mStatsFuture = mScheduler.scheduleAtFixedRate(() -> {
+                    JSObject stats = this.collectStats();
+                    stats.put("eventsPerSecond", METRICS.eventRate());
+                    notifyListeners("watcherStats", stats);
+                }, interval, interval, TimeUnit.MILLISECONDS);
+            }
         }
+        call.resolve();
+    }
 
-        inputStream.close();
-        return outputStream.toString("utf-8");
+    private JSObject collectStats() {
+        JSObject ret = new JSObject();
+        // changes dropped because the content fingerprint didn't change
+        ret.put("suppressedEvents", mSuppressedEvents.get());
+        // changes dropped because the app made them itself
+        ret.put("echoEvents", mEchoEvents.get());
+        mDispatcher.putStats(ret);
+        METRICS.putStats(ret);
+        mWriter.putStats(ret);
+        JSArray roots = new JSArray();
+        for (String path : mRoots.keySet()) {
+            roots.put(Uri.fromFile(new File(path)).toString());
+        }
+        ret.put("roots", roots);
+        return ret;
     }
 
-    public class SimpleFileMetadata {
-        public long mtime;
-        public long ctime;
-        public long size;
-        public long ino;
+    // JS just wrote into the graph, poll at the fast rate for a while to pick up what follows
+    @PluginMethod()
+    public void wake(PluginCall call) {
+        String dir = call.getString("dir");
+        if (dir == null) {
+            for (WatchedRoot root : mRoots.values()) {
+                root.wake();
+            }
+        } else {
+            WatchedRoot root = findRoot(dir);
+            if (root != null) {
+                root.wake();
+            }
+        }
+        call.resolve();
+    }
 
-        public SimpleFileMetadata(File file) throws ErrnoException {
-            StructStat stat = Os.stat(file.getPath());
-            mtime = stat.st_mtime;
-            ctime = stat.st_ctime;
-            size = stat.st_size;
-            ino = stat.st_ino;
+    @Override
+    protected void handleOnStart() {
+        super.handleOnStart();
+        for (WatchedRoot root : mRoots.values()) {
+            root.resume();
         }
+    }
 
-        public boolean equals(SimpleFileMetadata other) {
-            return mtime == other.mtime && ctime == other.ctime && size == other.size && ino == other.ino;
+    @Override
+    protected void handleOnStop() {
+        super.handleOnStop();
+        // the process may be killed any time once in background
+        for (WatchedRoot root : mRoots.values()) {
+            root.pause();
         }
     }
 
+    synchronized ForkJoinPool scanPool() {
+        if (mScanPool == null) {
+            mScanPool = new ForkJoinPool(Math.min(4, Runtime.getRuntime().availableProcessors()));
+        }
+        return mScanPool;
+    }
 
-    public class PollingFsWatcher implements Runnable {
-        private String mPath;
-        private Map<String, SimpleFileMetadata> metaDb;
+    @Override
+    protected void handleOnDestroy() {
+        synchronized (mRoots) {
+            for (WatchedRoot root : mRoots.values()) {
+                root.stop();
+            }
+            mRoots.clear();
+        }
+        // lets the final snapshot saves queued by stop() run
+        mScheduler.shutdown();
+        mDispatcher.close();
+        mSnapshotExecutor.shutdownNow();
+        mOutlineExecutor.shutdownNow();
+        synchronized (this) {
+            if (mScanPool != null) {
+                mScanPool.shutdownNow();
+            }
+        }
+        mWriter.close();
+        super.handleOnDestroy();
+    }
 
-        public PollingFsWatcher(String path) {
-            metaDb = new HashMap();
+    // One watched graph: its watcher and the queues its events go through before reaching the
+    // listener. Every event carries the root's dir, so listeners can tell the graphs apart.
+    class WatchedRoot implements EventDispatcher.Target {
+        final String path;
+        // what watchers report paths under
+        final String canonicalPath;
+        private final Uri mDir;
+        private final Watcher mWatcher;
+        private final WatcherEventBatcher mBatcher;
+        private final DeleteConfirmationQueue mDeleteQueue;
+        final WatcherJournal journal;
+        private final LocalWriteRegistry mLocalWrites = new LocalWriteRegistry();
+        private final long mBatchMaxBytes;
+        private final int mBatchMaxSize;
+        private final boolean mLazyContent;
+        private final boolean mOutline;
+        // null when events go out in the order they happened
+        private final EventPriority mPriority;
+        // null unless the fullTextIndex option is set
+        final FullTextIndex index;
+        private final IgnoreRules mRules;
+        private volatile boolean mStopped = false;
 
-            File dir = new File(path);
+        WatchedRoot(String path, WatchOptions options) {
+            this.path = path;
+            mDir = Uri.fromFile(new File(path)); // Uri is for Android. URI is for RFC compatible
+            mBatcher = options.batchInterval > 0 ?
+                new WatcherEventBatcher(mScheduler, options.batchInterval, options.batchMaxSize, events -> mDispatcher.enqueueAll(this, events)) : null;
+            mBatchMaxBytes = options.batchMaxBytes;
+            mBatchMaxSize = options.batchMaxSize;
+            mPriority = options.priority;
+            mLazyContent = options.lazyContent;
+            mOutline = options.outline;
+            mDeleteQueue = new DeleteConfirmationQueue(mScheduler, options.deleteGracePeriod, this::onDeletesConfirmed);
+            journal = new WatcherJournal(options.journalSize);
+            String root;
             try {
-                mPath = dir.getCanonicalPath();
+                root = new File(path).getCanonicalPath();
             } catch (IOException e) {
-                e.printStackTrace();
+                root = path;
+            }
+            canonicalPath = root;
+            mRules = IgnoreRules.compile(root, options.ignore);
+            if (options.fullTextDir != null) {
+                index = new FullTextIndex(root, mRules, FullTextIndex.fileFor(options.fullTextDir, root));
+            } else {
+                index = null;
+            }
+            // "auto" prefers inotify, unless the graph lives on a filesystem where it's unreliable
+            if (options.mode.equals("inotify") || (options.mode.equals("auto") && supportsInotify(path))) {
+                mWatcher = new InotifyFsWatcher(this, options);
+            } else {
+                mWatcher = new PollingFsWatcher(this, options);
             }
         }
 
-        @Override
-        public void run() {
-            this.tick(false); // skip initial notification
+        void start(long delay) {
+            mWatcher.start(delay);
+            if (index != null) {
+                index.start();
+            }
+            try {
+                // writes a crash interrupted, off the scheduler as it lists the whole graph
+                mSnapshotExecutor.execute(() -> mWriter.sweepTemps(canonicalPath, mRules));
+            } catch (RejectedExecutionException e) {
+                // plugin destroyed
+            }
+        }
 
-            while (!Thread.currentThread().isInterrupted()) {
-                try {
-                    this.tick(true);
-                    Thread.sleep(2000); // The same as iOS fswatcher, 2s interval
-                } catch (InterruptedException e) {
-                    // e.printStackTrace();
-                    Log.i("FsWatcher", "interrupted, unwatch");
-                    break;
-                }
+        void stop() {
+            mStopped = true;
+            mWatcher.stop();
+            if (index != null) {
+                index.close();
             }
+            if (mBatcher != null) {
+                mBatcher.close();
+            }
+            mDeleteQueue.close();
+            mDispatcher.forget(this);
+        }
 
+        void wake() {
+            mWatcher.wake();
         }
 
-        private void tick(boolean shouldNotify) {
-            Map<String, SimpleFileMetadata> newMetaDb = new HashMap();
+        void pause() {
+            mWatcher.persist();
+            mWatcher.pause();
+            if (index != null) {
+                index.persist();
+            }
+        }
 
-            Stack<String> paths = new Stack();
-            paths.push(mPath);
-            while (!paths.isEmpty()) {
-                String dir = paths.pop();
-                File curr = new File(dir);
-
-                File[] files = curr.listFiles();
-                if (files != null) {
-                    for (File file : files) {
-                        String filename = file.getName();
-                        if (file.isDirectory()) {
-                            if (!filename.startsWith(".") && !filename.equals("bak") && !filename.equals("version-files") && !filename.equals("node_modules")) {
-                                paths.push(file.getAbsolutePath());
-                            }
-                        } else if (file.isFile() && !filename.equals("graphs-txid.edn") && !filename.equals("broken-config.edn")) {
-                            try {
-                                SimpleFileMetadata metadata = new SimpleFileMetadata(file);
-                                newMetaDb.put(file.getAbsolutePath(), metadata);
-                            } catch (ErrnoException e) {
-                            }
-                        }
-                    }
+        void resume() {
+            mWatcher.resume();
+        }
+
+        // watchers report canonical paths
+        void registerLocalWrite(File file, long size, long mtime, long hash) throws IOException {
+            mLocalWrites.register(file.getCanonicalPath(), size, mtime, hash);
+            // more saves usually follow while typing
+            wake();
+        }
+
+        // add, change, unlink events
+        public void onObserverEvent(int event, String path, SimpleFileMetadata metadata) {
+            // the app's own writes too, they aren't echoed but the index must see them
+            if (index != null) {
+                if (event == FileObserver.DELETE) {
+                    index.remove(path);
+                } else {
+                    index.update(path);
                 }
             }
+            // journaled either way: a changesSince caller resuming from before the write, e.g. after
+            // a reload or from another webview, hasn't seen it
+            long generation = journal.record(event, path, metadata);
+            if ((event == FileObserver.MODIFY || event == FileObserver.CREATE) && mLocalWrites.isEcho(path, metadata)) {
+                // the live listener made the write itself, a watermark may pass it undelivered
+                mEchoEvents.incrementAndGet();
+                return;
+            }
+            if (mBatcher != null) {
+                mBatcher.add(event, path, metadata, generation);
+            } else {
+                mDispatcher.enqueue(this, new WatcherEventBatcher.Pending(event, path, metadata, generation));
+            }
+        }
 
-            if (shouldNotify) {
-                this.updateMetaDb(newMetaDb);
+        // a file is gone from the watched tree, reported once the grace period confirms it
+        public void onObserverDelete(String path) {
+            mDeleteQueue.enqueue(path);
+        }
+
+        private void onDeletesConfirmed(List<String> paths) {
+            for (String path : paths) {
+                onObserverEvent(FileObserver.DELETE, path, null);
+                Log.d("FsWatcher", "deleted " + path);
+            }
+        }
+
+        // a file moved from oldPath to path, same inode, no need to re-read it
+        public void onObserverRename(String oldPath, String path, SimpleFileMetadata metadata) {
+            if (index != null) {
+                index.remove(oldPath);
+                index.update(path);
+            }
+            // the journal is per path, a caller catching up sees the old path go and the new one appear
+            long unlinked = journal.record(FileObserver.DELETE, oldPath, null);
+            long generation = journal.record(FileObserver.CREATE, path, metadata);
+            if (mBatcher != null) {
+                mBatcher.addRename(oldPath, path, metadata, unlinked, generation);
             } else {
-                this.metaDb = newMetaDb;
+                WatcherEventBatcher.Pending pending = new WatcherEventBatcher.Pending(FileObserver.MOVED_TO, path, metadata, generation);
+                pending.oldPath = oldPath;
+                pending.firstGeneration = unlinked;
+                mDispatcher.enqueue(this, pending);
             }
         }
 
-        private void updateMetaDb(Map<String, SimpleFileMetadata> newMetaDb) {
-            for (Map.Entry<String, SimpleFileMetadata> entry : newMetaDb.entrySet()) {
-                String path = entry.getKey();
-                SimpleFileMetadata newMeta = entry.getValue();
-                SimpleFileMetadata oldMeta = metaDb.remove(path);
-                if (oldMeta == null) {
-                    // new file
-                    onObserverEvent(FileObserver.CREATE, path, newMeta);
-                    Log.d("FsWatcher", "create " + path);
-                } else if (!oldMeta.equals(newMeta)) {
-                    // file changed
-                    onObserverEvent(FileObserver.MODIFY, path, newMeta);
-                    Log.d("FsWatcher", "changed " + path);
+        @Override
+        public int priorityOf(WatcherEventBatcher.Pending pending) {
+            String relpath = mPriority == null ? null : relativePath(pending.path);
+            return relpath == null ? EventPriority.CLASSES - 1 : mPriority.classify(relpath);
+        }
+
+        // On the dispatcher thread. Without batching every event goes out as is, otherwise as
+        // watcherBatch events, split further when inlined contents get too large. Each message
+        // carries the watermark reached once it's handled, held back by the events still to come.
+        @Override
+        public void deliver(List<WatcherEventBatcher.Pending> events, long watermark) {
+            if (mStopped) {
+                return;
+            }
+            // watermarks[i] once events before i were sent
+            long[] watermarks = new long[events.size() + 1];
+            watermarks[events.size()] = watermark;
+            for (int i = events.size() - 1; i >= 0; i--) {
+                watermarks[i] = Math.min(watermarks[i + 1], events.get(i).firstGeneration - 1);
+            }
+
+            if (mBatcher == null) {
+                for (int i = 0; i < events.size(); i++) {
+                    WatcherEventBatcher.Pending pending = events.get(i);
+                    JSObject obj = buildEvent(pending.event, pending.path, pending.metadata, pending.oldPath, pending.generation);
+                    if (obj != null) {
+                        obj.put("watermark", watermarks[i + 1]);
+                        notifyListeners("watcher", obj);
+                        sent(pending);
+                    }
                 }
+                return;
             }
-            for (String path : metaDb.keySet()) {
-                // file deleted
-                Thread timer = new Thread() {
-                    @Override
-                    public void run() {
-                        try {
-                            // delay 500ms then send, enough for most syncing net disks
-                            Thread.sleep(500);
-                            onObserverEvent(FileObserver.DELETE, path, null);
-                            Log.d("FsWatcher", "deleted " + path);
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
-                        }
+
+            JSArray batch = new JSArray();
+            List<WatcherEventBatcher.Pending> inBatch = new ArrayList<>();
+            long bytes = 0;
+            for (int i = 0; i < events.size(); i++) {
+                WatcherEventBatcher.Pending pending = events.get(i);
+                JSObject obj = buildEvent(pending.event, pending.path, pending.metadata, pending.oldPath, pending.generation);
+                if (obj == null) {
+                    continue;
+                }
+                batch.put(obj);
+                inBatch.add(pending);
+                Object content = obj.opt("content");
+                if (content instanceof String) {
+                    bytes += ((String) content).length();
+                }
+                if (bytes >= mBatchMaxBytes || batch.length() >= mBatchMaxSize) {
+                    notifyBatch(batch, watermarks[i + 1]);
+                    for (WatcherEventBatcher.Pending p : inBatch) {
+                        sent(p);
                     }
-                };
-                timer.start();
+                    batch = new JSArray();
+                    inBatch.clear();
+                    bytes = 0;
+                }
             }
+            if (batch.length() > 0) {
+                notifyBatch(batch, watermark);
+                for (WatcherEventBatcher.Pending p : inBatch) {
+                    sent(p);
+                }
+            }
+        }
 
-            this.metaDb = newMetaDb;
+        private void sent(WatcherEventBatcher.Pending pending) {
+            METRICS.dispatchLatency.record((System.nanoTime() - pending.detectedAt) / 1000000);
+            switch (pending.event) {
+                case FileObserver.CREATE:
+                    METRICS.addEvents.incrementAndGet();
+                    break;
+                case FileObserver.MODIFY:
+                    METRICS.changeEvents.incrementAndGet();
+                    break;
+                case FileObserver.DELETE:
+                    METRICS.unlinkEvents.incrementAndGet();
+                    break;
+                case FileObserver.MOVED_TO:
+                    METRICS.renameEvents.incrementAndGet();
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        // events were dropped, what changed is still in the journal, see changesSince
+        @Override
+        public void deliverResync(long watermark) {
+            if (mStopped) {
+                return;
+            }
+            JSObject obj = new JSObject();
+            obj.put("dir", mDir);
+            obj.put("generation", journal.generation());
+            obj.put("watermark", watermark);
+            notifyListeners("resyncRequired", obj);
+        }
+
+        private void notifyBatch(JSArray batch, long watermark) {
+            JSObject obj = new JSObject();
+            obj.put("dir", mDir);
+            obj.put("events", batch);
+            obj.put("watermark", watermark);
+            notifyListeners("watcherBatch", obj);
+        }
+
+        private JSObject buildEvent(int event, String path, SimpleFileMetadata metadata, String oldPath, long generation) {
+            JSObject obj = new JSObject();
+            String content = null;
+            File f = new File(path);
+
+            boolean shouldRead = PARSEABLE_FILE.matcher(f.getName()).matches();
+
+            String relpath = relativePath(path);
+            if (relpath == null) {
+                Log.e("FsWatcher", "file path not under watch path");
+                return null;
+            }
+
+
+            obj.put("path", Normalizer.normalize(relpath, Normalizer.Form.NFC));
+            obj.put("dir", mDir);
+            // journal generation of this change; to catch up use the message's watermark, see changesSince
+            obj.put("generation", generation);
+            JSObject stat;
+
+            switch (event) {
+                case FileObserver.MODIFY:
+                    obj.put("event", "change");
+                    stat = new JSObject();
+                    stat.put("mtime", metadata.mtime);
+                    stat.put("ctime", metadata.ctime);
+                    stat.put("size", metadata.size);
+                    obj.put("stat", stat);
+                    if (shouldRead && !mLazyContent) {
+                        try {
+                            content = getFileContents(f);
+                        } catch (IOException e) {
+                            Log.e("FsWatcher", "error reading modified file");
+                            e.printStackTrace();
+                        }
+                    }
+
+                    Log.i("FsWatcher", "prepare event " + obj);
+                    putContent(obj, path, metadata, content);
+                    break;
+                case FileObserver.CREATE:
+                    obj.put("event", "add");
+                    stat = new JSObject();
+                    stat.put("mtime", metadata.mtime);
+                    stat.put("ctime", metadata.ctime);
+                    stat.put("size", metadata.size);
+                    obj.put("stat", stat);
+                    if (shouldRead && !mLazyContent) {
+                        try {
+                            content = getFileContents(f);
+                        } catch (IOException e) {
+                            Log.e("FsWatcher", "error reading new file");
+                            e.printStackTrace();
+                        }
+                    }
+                    putContent(obj, path, metadata, content);
+                    break;
+                case FileObserver.MOVED_TO:
+                    String oldRelpath = relativePath(oldPath);
+                    if (oldRelpath == null) {
+                        Log.e("FsWatcher", "file path not under watch path");
+                        return null;
+                    }
+                    obj.put("event", "rename");
+                    obj.put("oldPath", Normalizer.normalize(oldRelpath, Normalizer.Form.NFC));
+                    stat = new JSObject();
+                    stat.put("mtime", metadata.mtime);
+                    stat.put("ctime", metadata.ctime);
+                    stat.put("size", metadata.size);
+                    obj.put("stat", stat);
+                    Log.i("FsWatcher", "prepare event " + obj);
+                    break;
+                case FileObserver.DELETE:
+                    // already confirmed missing by the delete queue
+                    obj.put("event", "unlink");
+                    Log.i("FsWatcher", "prepare event " + obj);
+                    break;
+                default:
+                    // unreachable?
+                    obj.put("event", "unknown");
+                    break;
+            }
+
+            return obj;
+        }
+
+        // in lazy mode the listener gets a fingerprint and calls readContent(s) for what it needs
+        private void putContent(JSObject obj, String path, SimpleFileMetadata metadata, String content) {
+            if (mLazyContent) {
+                long hash = metadata.hash != 0 ? metadata.hash : fingerprint(path, metadata);
+                obj.put("hash", hash != 0 ? String.format("%016x", hash) : null);
+            } else {
+                obj.put("content", content);
+                if (mOutline && content != null && BlockOutliner.isOutlined(path)) {
+                    obj.put("outline", BlockOutliner.parse(content, path.toLowerCase().endsWith(".org")).toJSObject());
+                }
+            }
+        }
+
+        // net changes since the given generation, collapsed per path and without contents
+        JSObject changesSince(long since) {
+            JSObject ret = new JSObject();
+            ret.put("dir", mDir);
+            ret.put("generation", journal.generation());
+            List<WatcherJournal.Entry> entries = journal.since(since);
+            if (entries == null) {
+                // older changes were evicted, the listener has to re-read the graph
+                ret.put("resyncRequired", true);
+                return ret;
+            }
+
+            JSArray changes = new JSArray();
+            for (WatcherJournal.Entry entry : entries) {
+                String relpath = relativePath(entry.path);
+                if (relpath == null) {
+                    continue;
+                }
+                JSObject obj = new JSObject();
+                obj.put("path", Normalizer.normalize(relpath, Normalizer.Form.NFC));
+                obj.put("generation", entry.generation);
+                switch (entry.event) {
+                    case FileObserver.CREATE:
+                        obj.put("event", "add");
+                        break;
+                    case FileObserver.DELETE:
+                        obj.put("event", "unlink");
+                        break;
+                    default:
+                        obj.put("event", "change");
+                        break;
+                }
+                if (entry.metadata != null) {
+                    JSObject stat = new JSObject();
+                    stat.put("mtime", entry.metadata.mtime);
+                    stat.put("ctime", entry.metadata.ctime);
+                    stat.put("size", entry.metadata.size);
+                    obj.put("stat", stat);
+                    if (entry.metadata.hash != 0) {
+                        obj.put("hash", String.format("%016x", entry.metadata.hash));
+                    }
+                }
+                changes.put(obj);
+            }
+            ret.put("resyncRequired", false);
+            ret.put("changes", changes);
+            return ret;
+        }
+
+        private String relativePath(String path) {
+            Uri fpath = Uri.fromFile(new File(path));
+
+            if (fpath.getPath().startsWith(mDir.getPath())) {
+                String relpath = fpath.getPath().substring(mDir.getPath().length());
+                if (relpath.startsWith("/")) {
+                    relpath = relpath.substring(1);
+                }
+                return relpath;
+            }
+            return null;
+        }
+    }
+
+    // Fills in newMeta.hash, true when the bytes are still those oldMeta was taken from,
+    // e.g. a sync tool only touched mtime.
+    private boolean isSameContent(String path, SimpleFileMetadata oldMeta, SimpleFileMetadata newMeta) {
+        newMeta.hash = fingerprint(path, newMeta);
+        if (oldMeta.hash != 0 && oldMeta.hash == newMeta.hash) {
+            mSuppressedEvents.incrementAndGet();
+            Log.d("FsWatcher", "content unchanged " + path);
+            return true;
+        }
+        return false;
+    }
+
+    static long fingerprint(String path, SimpleFileMetadata metadata) {
+        if (metadata.size > CONTENT_HASH_MAX_SIZE) {
+            return 0;
+        }
+        try {
+            return ContentHash.hash(new File(path));
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+
+    public static String getFileContents(final File file) throws IOException {
+        return readRange(file, 0, -1);
+    }
+
+    // getFileContents for other plugins' reads (BulkFs), kept out of the watcher's bytesRead
+    static String readUncounted(final File file) throws IOException {
+        return read(file, 0, -1, false);
+    }
+
+    static String readRange(final File file, long offset, long length) throws IOException {
+        return read(file, offset, length, true);
+    }
+
+    // Reads [offset, offset + length) into a buffer sized exactly from the channel, length < 0 means
+    // up to the end. A range may cut a multi-byte character, its bytes decode as U+FFFD.
+    private static String read(final File file, long offset, long length, boolean counted) throws IOException {
+        try (FileInputStream in = new FileInputStream(file); FileChannel channel = in.getChannel()) {
+            long size = channel.size();
+            long start = Math.min(Math.max(offset, 0), size);
+            long end = length < 0 ? size : Math.min(size, start + length);
+            if (end - start > Integer.MAX_VALUE) {
+                throw new IOException("range too large: " + file);
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate((int) (end - start));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, start + buffer.position()) == -1) {
+                    break; // truncated meanwhile
+                }
+            }
+            if (counted) {
+                METRICS.bytesRead.addAndGet(buffer.position());
+            }
+            return new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+        }
+    }
+
+    // inotify doesn't see changes made through FUSE (Android 11+ shared storage) or sdcardfs by other apps
+    static boolean supportsInotify(String path) {
+        String fsType = null;
+        int bestLength = -1;
+        try (BufferedReader reader = new BufferedReader(new FileReader("/proc/self/mounts"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(" ");
+                if (parts.length < 3) {
+                    continue;
+                }
+                String mountPoint = parts[1].replace("\\040", " ");
+                boolean contains = path.equals(mountPoint) || path.startsWith(mountPoint.endsWith("/") ? mountPoint : mountPoint + "/");
+                if (contains && mountPoint.length() > bestLength) {
+                    bestLength = mountPoint.length();
+                    fsType = parts[2];
+                }
+            }
+        } catch (IOException e) {
+            Log.w("FsWatcher", "cannot read mounts, fallback to polling", e);
+            return false;
+        }
+        if (fsType == null) {
+            return false;
+        }
+        Log.i("FsWatcher", "watch path filesystem: " + fsType);
+        return !(fsType.startsWith("fuse") || fsType.equals("sdcardfs") || fsType.equals("esdfs"));
+    }
+
+    // One lstat per directory entry gives both its type and its metadata, only symlinks take a
+    // second stat for their target. null when the entry is gone or unreadable.
+    static StructStat statEntry(String path) {
+        try {
+            METRICS.statCalls.incrementAndGet();
+            StructStat stat = Os.lstat(path);
+            if (OsConstants.S_ISLNK(stat.st_mode)) {
+                METRICS.statCalls.incrementAndGet();
+                stat = Os.stat(path);
+            }
+            if (OsConstants.S_ISREG(stat.st_mode)) {
+                METRICS.filesVisited.incrementAndGet();
+            }
+            return stat;
+        } catch (ErrnoException e) {
+            return null;
+        }
+    }
+
+    // entry names of dir, null when it can't be listed
+    static String[] listDir(String dir) {
+        METRICS.dirsVisited.incrementAndGet();
+        return new File(dir).list();
+    }
+
+    static class WatchOptions {
+        public final String mode;
+        // only re-list directories whose own mtime/ctime changed
+        public final boolean incremental;
+        // in-place edits don't touch the parent directory, so an incremental tick re-stats all files
+        // once this many ms have passed since the last time; 0 never does. In ms rather than ticks as
+        // the polling interval backs off, a missed edit shows up within the same time either way.
+        public final long verifyInterval;
+        // inotify mode: ms between full rescans, 0 never; besides resume(), the only way to catch
+        // events the kernel dropped, see InotifyFsWatcher
+        public final long rescanInterval;
+        // where metaDb is persisted between runs, null when disabled
+        public final File snapshotDir;
+        // gitignore-style patterns on top of the defaults and .logseqignore, e.g. the graph's :hidden
+        public final List<String> ignore;
+        // ms to collect events into one watcherBatch, 0 sends each as a watcher event
+        public final int batchInterval;
+        public final int batchMaxSize;
+        public final int batchMaxBytes;
+        // fingerprint changed files and drop changes that didn't touch the bytes
+        public final boolean contentHash;
+        // events carry a content hash instead of the content, see readContent
+        public final boolean lazyContent;
+        // events with Markdown or Org content also carry its block outline, see BlockOutliner
+        public final boolean outline;
+        // where the native search index of the graph is kept, null when disabled; see FullTextIndex
+        public final File fullTextDir;
+        // paths remembered for changesSince, older changes require a resync
+        public final int journalSize;
+        // delivery order of queued events, priorityPaths (config and custom CSS), then recent journals,
+        // pages and the rest; null with prioritize: false
+        public final EventPriority priority;
+        // polling delay right after a change or wake(), doubled by every idle tick up to maxPollInterval
+        public final long minPollInterval;
+        public final long maxPollInterval;
+        // walks the tree on the shared fork/join pool, see scanPool()
+        public final boolean parallelScan;
+        // ms a deleted file must stay missing before unlink is sent, enough for most syncing net disks
+        public final int deleteGracePeriod;
+
+        WatchOptions(PluginCall call, File baseDir) {
+            mode = call.getString("mode", "auto");
+            incremental = call.getBoolean("incremental", false);
+            verifyInterval = call.getInt("verifyInterval", 10 * 1000);
+            rescanInterval = call.getInt("rescanInterval", 5 * 60 * 1000);
+            snapshotDir = call.getBoolean("persist", false) ? baseDir : null;
+            ignore = new ArrayList<>();
+            JSArray patterns = call.getArray("ignore");
+            if (patterns != null) {
+                for (int i = 0; i < patterns.length(); i++) {
+                    ignore.add(patterns.optString(i));
+                }
+            }
+            batchInterval = call.getInt("batchInterval", 0);
+            batchMaxSize = call.getInt("batchMaxSize", 200);
+            batchMaxBytes = call.getInt("batchMaxBytes", 4 * 1024 * 1024);
+            contentHash = call.getBoolean("contentHash", false);
+            lazyContent = call.getBoolean("lazyContent", false);
+            outline = call.getBoolean("outline", false);
+            fullTextDir = call.getBoolean("fullTextIndex", false) ? baseDir : null;
+            journalSize = call.getInt("journalSize", 10000);
+            if (call.getBoolean("prioritize", true)) {
+                List<String> first = EventPriority.DEFAULT_PATHS;
+                JSArray paths = call.getArray("priorityPaths");
+                if (paths != null) {
+                    first = new ArrayList<>();
+                    for (int i = 0; i < paths.length(); i++) {
+                        first.add(paths.optString(i));
+                    }
+                }
+                priority = new EventPriority(first, call.getString("journalsDir", "journals"),
+                    call.getString("pagesDir", "pages"), call.getInt("recentJournalDays", 7));
+            } else {
+                priority = null;
+            }
+            minPollInterval = Math.max(50, call.getInt("minPollInterval", 250));
+            maxPollInterval = Math.max(minPollInterval, call.getInt("maxPollInterval", 10 * 1000));
+            parallelScan = call.getBoolean("parallelScan", false);
+            deleteGracePeriod = call.getInt("deleteGracePeriod", 500);
+        }
+    }
+
+    // Pairs removed and created paths that share an inode, size and mtime, i.e. renames.
+    // Returns old path by new path. ctime is not compared, rename(2) updates it.
+    static Map<String, String> matchRenames(Map<String, SimpleFileMetadata> removed, List<String> created, Map<String, SimpleFileMetadata> metaDb) {
+        Map<String, String> renames = new HashMap<>();
+        if (removed.isEmpty() || created.isEmpty()) {
+            return renames;
+        }
+
+        Map<Long, String> byIno = new HashMap<>(removed.size() * 4 / 3 + 1);
+        for (Map.Entry<String, SimpleFileMetadata> entry : removed.entrySet()) {
+            byIno.put(entry.getValue().ino, entry.getKey());
+        }
+        for (String path : created) {
+            SimpleFileMetadata newMeta = metaDb.get(path);
+            String oldPath = newMeta == null ? null : byIno.get(newMeta.ino);
+            if (oldPath == null) {
+                continue;
+            }
+            SimpleFileMetadata oldMeta = removed.get(oldPath);
+            if (oldMeta.size == newMeta.size && oldMeta.mtime == newMeta.mtime) {
+                renames.put(path, oldPath);
+                byIno.remove(newMeta.ino);
+            }
+        }
+        return renames;
+    }
+
+    interface Watcher {
+        // runs on the shared scheduler, the first scan after delay ms
+        void start(long delay);
+
+        void stop();
+
+        // write the snapshot soon, if persisting is enabled
+        void persist();
+
+        // recent activity in the graph, changes are likely to follow
+        void wake();
+
+        // the app went to background, no scanning until resume()
+        void pause();
+
+        // back in foreground, catch up with what changed meanwhile
+        void resume();
+    }
+
+    public static class SimpleFileMetadata {
+        public long mtime;
+        public long ctime;
+        public long size;
+        public long ino;
+        // content fingerprint, 0 when unknown
+        public long hash;
+
+        public SimpleFileMetadata(long mtime, long ctime, long size, long ino, long hash) {
+            this.mtime = mtime;
+            this.ctime = ctime;
+            this.size = size;
+            this.ino = ino;
+            this.hash = hash;
+        }
+
+        public SimpleFileMetadata(File file) throws ErrnoException {
+            this(stat(file));
+        }
+
+        private static StructStat stat(File file) throws ErrnoException {
+            METRICS.statCalls.incrementAndGet();
+            return Os.stat(file.getPath());
+        }
+
+        public SimpleFileMetadata(StructStat stat) {
+            mtime = stat.st_mtime;
+            ctime = stat.st_ctime;
+            size = stat.st_size;
+            ino = stat.st_ino;
+        }
+
+        public boolean equals(SimpleFileMetadata other) {
+            return mtime == other.mtime && ctime == other.ctime && size == other.size && ino == other.ino;
+        }
+    }
+
+
+    public class PollingFsWatcher implements Runnable, Watcher {
+        private final WatchedRoot mRoot;
+        private String mPath;
+        private Map<String, SimpleFileMetadata> metaDb;
+        // the next tick, only touched on the scheduler thread
+        private ScheduledFuture<?> mFuture;
+        private boolean mStarted = false;
+        private boolean mPaused = false;
+        private boolean mStopped = false;
+        // current delay between ticks, reset to minPollInterval by changes, doubled by idle ticks
+        private long mInterval;
+        // the tick being run reported something
+        private boolean mChanged = false;
+        private final WatchOptions mOptions;
+        private final Map<String, DirSnapshot> dirDb = new HashMap<>();
+        // System.nanoTime() of the last incremental tick that stat'ed every file, see verifyInterval
+        private long mLastVerify;
+        private final ParallelTreeWalker mWalker;
+        // metaDb of the sequential full scan, null in the other modes which use the metaDb map
+        private final CompactMetaStore mStore;
+        private final IgnoreRules mRules;
+        // entries loaded from the snapshot, those never re-visited by the first tick are gone
+        private Map<String, SimpleFileMetadata> mRestored;
+        private boolean mDirty = false;
+        private long mLastSave = 0;
+        private volatile boolean mSaveRequested = false;
+        // adds and removals of the current incremental tick, paired up into renames once it's done
+        private final List<String> mCreated = new ArrayList<>();
+        private final Map<String, SimpleFileMetadata> mRemoved = new HashMap<>();
+
+        public PollingFsWatcher(WatchedRoot root, WatchOptions options) {
+            metaDb = new HashMap();
+            mRoot = root;
+            mOptions = options;
+            mInterval = options.minPollInterval;
+
+            File dir = new File(root.path);
+            try {
+                mPath = dir.getCanonicalPath();
+            } catch (IOException e) {
+                e.printStackTrace();
+                mPath = dir.getAbsolutePath();
+            }
+
+            mRules = IgnoreRules.compile(mPath, options.ignore);
+            // the incremental scan only walks directories, nothing to spread there
+            mWalker = options.parallelScan && !options.incremental ? new ParallelTreeWalker(scanPool(), mRules) : null;
+            mStore = !options.incremental && mWalker == null ? new CompactMetaStore() : null;
+        }
+
+        @Override
+        public void start(long delay) {
+            this.post(() -> this.reschedule(delay));
+        }
+
+        @Override
+        public void stop() {
+            Log.i("FsWatcher", "unwatch " + mPath);
+            // queued behind a tick that's still running
+            this.post(() -> {
+                mStopped = true;
+                this.reschedule(-1);
+                this.maybeSave(true);
+            });
+        }
+
+        @Override
+        public void persist() {
+            mSaveRequested = true;
+        }
+
+        @Override
+        public void wake() {
+            this.post(() -> {
+                mInterval = mOptions.minPollInterval;
+                // bring the next tick forward, never push it back
+                if (mFuture != null && mFuture.getDelay(TimeUnit.MILLISECONDS) > mInterval) {
+                    this.reschedule(mInterval);
+                }
+            });
+        }
+
+        @Override
+        public void pause() {
+            this.post(() -> {
+                mPaused = true;
+                this.reschedule(-1);
+                this.maybeSave(false);
+            });
+        }
+
+        @Override
+        public void resume() {
+            this.post(() -> {
+                if (!mPaused) {
+                    return;
+                }
+                mPaused = false;
+                mInterval = mOptions.minPollInterval;
+                this.reschedule(0);
+            });
+        }
+
+        // all state changes happen on the scheduler thread, ticks included
+        private void post(Runnable task) {
+            try {
+                mScheduler.execute(task);
+            } catch (RejectedExecutionException e) {
+                // plugin destroyed
+            }
+        }
+
+        // replaces the pending tick, delay < 0 just cancels it
+        private void reschedule(long delay) {
+            if (mFuture != null) {
+                mFuture.cancel(false);
+                mFuture = null;
+            }
+            if (delay >= 0 && !mStopped && !mPaused) {
+                mFuture = mScheduler.schedule(this, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (mStopped || mPaused) {
+                return;
+            }
+            this.scan();
+            // poll fast while things are moving, back off exponentially once the tree is idle
+            mInterval = mChanged ? mOptions.minPollInterval : Math.min(mInterval * 2, mOptions.maxPollInterval);
+            this.reschedule(mInterval);
+        }
+
+        // one tick without scheduling the next, benchmarks drive it directly
+        void scan() {
+            mChanged = false;
+            long start = System.nanoTime();
+            try {
+                if (!mStarted) {
+                    // its walk is this tick
+                    mStarted = true;
+                    this.initialScan();
+                } else {
+                    this.tick(true);
+                }
+                METRICS.scanDuration.record((System.nanoTime() - start) / 1000000);
+                this.maybeSave(false);
+            } catch (RuntimeException e) {
+                // don't let one bad tick end the polling
+                Log.e("FsWatcher", "tick failed for " + mPath, e);
+            }
+        }
+
+        private void initialScan() {
+            Map<String, SimpleFileMetadata> snapshot = mOptions.snapshotDir == null ? null :
+                WatcherSnapshot.load(WatcherSnapshot.fileFor(mOptions.snapshotDir, mPath), mPath);
+            if (snapshot == null) {
+                this.tick(false); // skip initial notification
+                mDirty = true;
+            } else if (mStore != null) {
+                // report only what changed while the app wasn't running
+                for (Map.Entry<String, SimpleFileMetadata> entry : snapshot.entrySet()) {
+                    mStore.put(entry.getKey(), entry.getValue());
+                }
+                this.tick(true);
+            } else {
+                metaDb = snapshot;
+                mRestored = mOptions.incremental ? new HashMap<>(snapshot) : null;
+                this.tick(true);
+            }
+        }
+
+        private void maybeSave(boolean force) {
+            if (mOptions.snapshotDir == null || !mDirty) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            if (force || mSaveRequested || now - mLastSave > SNAPSHOT_SAVE_INTERVAL_MS) {
+                File file = WatcherSnapshot.fileFor(mOptions.snapshotDir, mPath);
+                if (mStore != null) {
+                    WatcherSnapshot.save(file, mPath, mStore);
+                } else {
+                    WatcherSnapshot.save(file, mPath, metaDb);
+                }
+                mDirty = false;
+                mSaveRequested = false;
+                mLastSave = now;
+            }
+        }
+
+        private void emit(int event, String path, SimpleFileMetadata metadata) {
+            mDirty = true;
+            mChanged = true;
+            mRoot.onObserverEvent(event, path, metadata);
+        }
+
+        private void tick(boolean shouldNotify) {
+            if (mOptions.incremental) {
+                this.incrementalTick(shouldNotify);
+                return;
+            }
+            if (mStore != null) {
+                this.compactTick(shouldNotify);
+                return;
+            }
+
+            Map<String, SimpleFileMetadata> newMetaDb = mWalker != null ? mWalker.walk(mPath) : this.walk();
+
+            if (shouldNotify) {
+                this.updateMetaDb(newMetaDb);
+            } else {
+                this.metaDb = newMetaDb;
+            }
+        }
+
+        private Map<String, SimpleFileMetadata> walk() {
+            Map<String, SimpleFileMetadata> newMetaDb = new HashMap();
+
+            Stack<String> paths = new Stack();
+            paths.push(mPath);
+            while (!paths.isEmpty()) {
+                String dir = paths.pop();
+
+                String[] names = listDir(dir);
+                if (names != null) {
+                    for (String name : names) {
+                        String path = dir + "/" + name;
+                        StructStat stat = statEntry(path);
+                        if (stat == null) {
+                            continue;
+                        }
+                        if (OsConstants.S_ISDIR(stat.st_mode)) {
+                            if (!mRules.isIgnored(path, true)) {
+                                paths.push(path);
+                            }
+                        } else if (OsConstants.S_ISREG(stat.st_mode) && !mRules.isIgnored(path, false)) {
+                            newMetaDb.put(path, new SimpleFileMetadata(stat));
+                        }
+                    }
+                }
+            }
+            return newMetaDb;
+        }
+
+        // Same walk and reporting as walk() + updateMetaDb(), but diffed in place against mStore: an
+        // unchanged file still costs its path string, its StructStat and its slot in the listing's
+        // names array, all short-lived, but no metaDb entry or map node is built for it.
+        private void compactTick(boolean shouldNotify) {
+            mStore.beginScan();
+            List<String> created = new ArrayList<>();
+
+            Stack<String> paths = new Stack();
+            paths.push(mPath);
+            while (!paths.isEmpty()) {
+                String dir = paths.pop();
+                String[] names = listDir(dir);
+                if (names == null) {
+                    continue;
+                }
+                int dirId = -1;
+                for (String name : names) {
+                    String path = dir + "/" + name;
+                    StructStat stat = statEntry(path);
+                    if (stat == null) {
+                        continue;
+                    }
+                    if (OsConstants.S_ISDIR(stat.st_mode)) {
+                        if (!mRules.isIgnored(path, true)) {
+                            paths.push(path);
+                        }
+                        continue;
+                    }
+                    if (!OsConstants.S_ISREG(stat.st_mode) || mRules.isIgnored(path, false)) {
+                        continue;
+                    }
+                    if (dirId < 0) {
+                        dirId = mStore.dirId(dir);
+                    }
+
+                    int slot = mStore.find(dirId, name);
+                    if (slot < 0) {
+                        mStore.add(dirId, name, stat);
+                        mDirty = true;
+                        if (shouldNotify) {
+                            created.add(path);
+                        }
+                    } else if (mStore.isUnchanged(slot, stat)) {
+                        mStore.touch(slot);
+                    } else {
+                        SimpleFileMetadata oldMeta = mStore.get(slot);
+                        mStore.set(slot, stat);
+                        mDirty = true;
+                        if (!shouldNotify) {
+                            continue;
+                        }
+                        SimpleFileMetadata newMeta = mStore.get(slot);
+                        if (mOptions.contentHash && isSameContent(path, oldMeta, newMeta)) {
+                            // only metadata was touched
+                            mStore.setHash(slot, newMeta.hash);
+                        } else {
+                            emit(FileObserver.MODIFY, path, newMeta);
+                            mStore.setHash(slot, newMeta.hash);
+                            Log.d("FsWatcher", "changed " + path);
+                        }
+                    }
+                }
+            }
+
+            Map<String, SimpleFileMetadata> removed = new HashMap<>();
+            mStore.sweep(shouldNotify ? removed : null);
+            if (!removed.isEmpty()) {
+                mDirty = true;
+            }
+            if (created.isEmpty() && removed.isEmpty()) {
+                return;
+            }
+
+            // objects only for what was added, hashes found while reporting go back into the store
+            Map<String, SimpleFileMetadata> current = new HashMap<>(created.size() * 4 / 3 + 1);
+            for (String path : created) {
+                current.put(path, mStore.get(mStore.find(path)));
+            }
+            this.emitCreatedAndRemoved(created, removed, current);
+            for (Map.Entry<String, SimpleFileMetadata> entry : current.entrySet()) {
+                mStore.setHash(mStore.find(entry.getKey()), entry.getValue().hash);
+            }
+        }
+
+        private void updateMetaDb(Map<String, SimpleFileMetadata> newMetaDb) {
+            List<String> created = new ArrayList<>();
+            for (Map.Entry<String, SimpleFileMetadata> entry : newMetaDb.entrySet()) {
+                String path = entry.getKey();
+                SimpleFileMetadata newMeta = entry.getValue();
+                SimpleFileMetadata oldMeta = metaDb.remove(path);
+                if (oldMeta == null) {
+                    // new file
+                    created.add(path);
+                } else if (oldMeta.equals(newMeta)) {
+                    newMeta.hash = oldMeta.hash;
+                } else if (mOptions.contentHash && isSameContent(path, oldMeta, newMeta)) {
+                    // only metadata was touched
+                    mDirty = true;
+                } else {
+                    // file changed
+                    emit(FileObserver.MODIFY, path, newMeta);
+                    Log.d("FsWatcher", "changed " + path);
+                }
+            }
+            // what's left in metaDb was deleted
+            this.emitCreatedAndRemoved(created, metaDb, newMetaDb);
+
+            this.metaDb = newMetaDb;
+        }
+
+        private void emitCreatedAndRemoved(List<String> created, Map<String, SimpleFileMetadata> removed, Map<String, SimpleFileMetadata> current) {
+            Map<String, String> renames = matchRenames(removed, created, current);
+            for (String path : created) {
+                String oldPath = renames.get(path);
+                SimpleFileMetadata newMeta = current.get(path);
+                if (oldPath != null) {
+                    newMeta.hash = removed.remove(oldPath).hash;
+                    mDirty = true;
+                    mChanged = true;
+                    mRoot.onObserverRename(oldPath, path, newMeta);
+                    Log.d("FsWatcher", "rename " + oldPath + " -> " + path);
+                } else {
+                    if (mOptions.contentHash) {
+                        newMeta.hash = fingerprint(path, newMeta);
+                    }
+                    emit(FileObserver.CREATE, path, newMeta);
+                    Log.d("FsWatcher", "create " + path);
+                }
+            }
+            for (String path : removed.keySet()) {
+                this.notifyDeleted(path);
+            }
+        }
+
+        private void notifyDeleted(String path) {
+            mDirty = true;
+            mChanged = true;
+            mRoot.onObserverDelete(path);
+        }
+
+        // Walks directories only. A directory whose mtime/ctime is unchanged since it was listed keeps
+        // its children, and its files carry over from metaDb without any syscall.
+        private void incrementalTick(boolean shouldNotify) {
+            long now = System.nanoTime();
+            boolean verifyFiles = shouldNotify && mOptions.verifyInterval > 0
+                && now - mLastVerify >= TimeUnit.MILLISECONDS.toNanos(mOptions.verifyInterval);
+            if (verifyFiles || !shouldNotify) {
+                // the first tick lists every directory, so it stats every file too
+                mLastVerify = now;
+            }
+            Set<String> visited = new HashSet<>();
+
+            Stack<String> paths = new Stack();
+            paths.push(mPath);
+            while (!paths.isEmpty()) {
+                String dir = paths.pop();
+                StructStat stat;
+                try {
+                    METRICS.statCalls.incrementAndGet();
+                    stat = Os.stat(dir);
+                } catch (ErrnoException e) {
+                    continue;
+                }
+                visited.add(dir);
+
+                DirSnapshot snapshot = dirDb.get(dir);
+                if (snapshot == null || !snapshot.isUnchanged(stat)) {
+                    snapshot = this.rescanDir(dir, stat, snapshot, shouldNotify);
+                    dirDb.put(dir, snapshot);
+                } else if (verifyFiles) {
+                    for (String path : snapshot.files) {
+                        this.statFile(path, shouldNotify);
+                    }
+                }
+                for (String subdir : snapshot.dirs) {
+                    paths.push(subdir);
+                }
+            }
+
+            if (mRestored != null) {
+                // a restored entry still identical to what's in metaDb was not found by this walk
+                for (Map.Entry<String, SimpleFileMetadata> entry : mRestored.entrySet()) {
+                    if (metaDb.get(entry.getKey()) == entry.getValue()) {
+                        this.removeFile(entry.getKey(), shouldNotify);
+                    }
+                }
+                mRestored = null;
+            }
+
+            // directories gone since last tick take their files with them
+            Iterator<Map.Entry<String, DirSnapshot>> it = dirDb.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, DirSnapshot> entry = it.next();
+                if (!visited.contains(entry.getKey())) {
+                    for (String path : entry.getValue().files) {
+                        this.removeFile(path, shouldNotify);
+                    }
+                    it.remove();
+                }
+            }
+
+            this.emitCreatedAndRemoved(mCreated, mRemoved, metaDb);
+            mCreated.clear();
+            mRemoved.clear();
+        }
+
+        private DirSnapshot rescanDir(String dir, StructStat stat, DirSnapshot oldSnapshot, boolean shouldNotify) {
+            long listedAt = System.currentTimeMillis() / 1000;
+            List<String> dirs = new ArrayList<>();
+            List<String> files = new ArrayList<>();
+
+            String[] names = listDir(dir);
+            if (names != null) {
+                for (String filename : names) {
+                    String path = dir + "/" + filename;
+                    StructStat fileStat = statEntry(path);
+                    if (fileStat == null) {
+                        continue;
+                    }
+                    if (OsConstants.S_ISDIR(fileStat.st_mode)) {
+                        if (!mRules.isIgnored(path, true)) {
+                            dirs.add(path);
+                        }
+                    } else if (OsConstants.S_ISREG(fileStat.st_mode) && !mRules.isIgnored(path, false)) {
+                        files.add(path);
+                        this.updateFile(path, new SimpleFileMetadata(fileStat), shouldNotify);
+                    }
+                }
+            }
+
+            if (oldSnapshot != null) {
+                Set<String> current = new HashSet<>(files);
+                for (String path : oldSnapshot.files) {
+                    if (!current.contains(path)) {
+                        this.removeFile(path, shouldNotify);
+                    }
+                }
+            }
+
+            return new DirSnapshot(stat, listedAt, dirs.toArray(new String[0]), files.toArray(new String[0]));
+        }
+
+        private void statFile(String path, boolean shouldNotify) {
+            SimpleFileMetadata newMeta;
+            try {
+                newMeta = new SimpleFileMetadata(new File(path));
+            } catch (ErrnoException e) {
+                this.removeFile(path, shouldNotify);
+                return;
+            }
+            this.updateFile(path, newMeta, shouldNotify);
+        }
+
+        private void updateFile(String path, SimpleFileMetadata newMeta, boolean shouldNotify) {
+            SimpleFileMetadata oldMeta = metaDb.put(path, newMeta);
+            if (!shouldNotify) {
+                return;
+            }
+            if (oldMeta == null) {
+                mCreated.add(path);
+            } else if (oldMeta.equals(newMeta)) {
+                newMeta.hash = oldMeta.hash;
+            } else if (mOptions.contentHash && isSameContent(path, oldMeta, newMeta)) {
+                mDirty = true;
+            } else {
+                emit(FileObserver.MODIFY, path, newMeta);
+                Log.d("FsWatcher", "changed " + path);
+            }
+        }
+
+        private void removeFile(String path, boolean shouldNotify) {
+            SimpleFileMetadata oldMeta = metaDb.remove(path);
+            if (oldMeta != null && shouldNotify) {
+                mRemoved.put(path, oldMeta);
+            }
+        }
+    }
+
+    static class DirSnapshot {
+        public final long mtime;
+        public final long ctime;
+        public final long listedAt;
+        public final String[] dirs;
+        public final String[] files;
+
+        DirSnapshot(StructStat stat, long listedAt, String[] dirs, String[] files) {
+            this.mtime = stat.st_mtime;
+            this.ctime = stat.st_ctime;
+            this.listedAt = listedAt;
+            this.dirs = dirs;
+            this.files = files;
+        }
+
+        public boolean isUnchanged(StructStat stat) {
+            // st_mtime has second granularity, a listing taken in the same second as the last
+            // directory change may have missed an entry, so it's not trusted
+            return stat.st_mtime == mtime && stat.st_ctime == ctime && mtime < listedAt && ctime < listedAt;
+        }
+    }
+
+    // Event-driven watcher, one inotify watch per directory.
+    // Observer callbacks arrive on the shared FileObserver thread, they are only recorded there and
+    // reconciled against metaDb on the single scheduler thread, so no locking is needed.
+    //
+    // When the kernel's event queue overflows it sends IN_Q_OVERFLOW with wd -1, which FileObserver
+    // can't route to any observer and drops: lost events are never reported. The whole tree is
+    // rescanned instead on resume(), as background is when syncs pile changes up, and every
+    // rescanInterval while in foreground.
+    public class InotifyFsWatcher implements Watcher {
+        private static final int MASK = FileObserver.CREATE | FileObserver.MODIFY | FileObserver.CLOSE_WRITE
+            | FileObserver.ATTRIB | FileObserver.DELETE | FileObserver.MOVED_FROM | FileObserver.MOVED_TO
+            | FileObserver.DELETE_SELF | FileObserver.MOVE_SELF;
+        private static final long SETTLE_DELAY_MS = 100;
+        // more dirty paths than this, e.g. a sync while in background, and a rescan is cheaper
+        private static final int MAX_DIRTY_PATHS = 10000;
+
+        private final WatchedRoot mRoot;
+        private String mPath;
+        private final SortedMap<String, SimpleFileMetadata> metaDb = new TreeMap<>();
+        private final SortedMap<String, DirObserver> observers = new TreeMap<>();
+        private final Set<String> dirtyPaths = new LinkedHashSet<>();
+        private boolean flushScheduled = false;
+        // too many dirty paths or a rescan is due, the whole tree is reconciled on the next flush
+        private boolean rescanPending = false;
+        private ScheduledFuture<?> mSaveFuture;
+        private ScheduledFuture<?> mRescanFuture;
+        private volatile boolean mStopped = false;
+        // while in background events are only recorded, the flush waits for resume()
+        private boolean mPaused = false;
+        private final WatchOptions mOptions;
+        private final IgnoreRules mRules;
+        private boolean mDirty = false;
+        // set by initialScan() on the scheduler thread, there's nothing to reconcile before
+        private boolean mScanned = false;
+        // adds and removals of the current flush, paired up into renames in settle()
+        private final List<String> mCreated = new ArrayList<>();
+        private final Map<String, SimpleFileMetadata> mRemoved = new HashMap<>();
+
+        public InotifyFsWatcher(WatchedRoot root, WatchOptions options) {
+            mRoot = root;
+            mOptions = options;
+            File dir = new File(root.path);
+            try {
+                mPath = dir.getCanonicalPath();
+            } catch (IOException e) {
+                e.printStackTrace();
+                mPath = dir.getAbsolutePath();
+            }
+            mRules = IgnoreRules.compile(mPath, options.ignore);
+        }
+
+        @Override
+        public void start(long delay) {
+            mScheduler.schedule(this::initialScan, delay, TimeUnit.MILLISECONDS);
+            if (mOptions.snapshotDir != null) {
+                mSaveFuture = mScheduler.scheduleWithFixedDelay(this::save, SNAPSHOT_SAVE_INTERVAL_MS, SNAPSHOT_SAVE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            }
+            if (mOptions.rescanInterval > 0) {
+                mRescanFuture = mScheduler.scheduleWithFixedDelay(() -> {
+                    synchronized (dirtyPaths) {
+                        // in background resume() rescans anyway
+                        if (!mPaused) {
+                            this.requestRescan();
+                        }
+                    }
+                }, delay + mOptions.rescanInterval, mOptions.rescanInterval, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        @Override
+        public void stop() {
+            mStopped = true;
+            if (mSaveFuture != null) {
+                mSaveFuture.cancel(false);
+            }
+            if (mRescanFuture != null) {
+                mRescanFuture.cancel(false);
+            }
+            try {
+                mScheduler.execute(() -> {
+                    this.save();
+                    for (DirObserver observer : observers.values()) {
+                        observer.stopWatching();
+                    }
+                    observers.clear();
+                });
+            } catch (RejectedExecutionException e) {
+                // plugin destroyed
+            }
+        }
+
+        @Override
+        public void persist() {
+            try {
+                mScheduler.execute(this::save);
+            } catch (RejectedExecutionException e) {
+                // plugin destroyed
+            }
+        }
+
+        @Override
+        public void wake() {
+            // events arrive as they happen, nothing to speed up
+        }
+
+        @Override
+        public void pause() {
+            synchronized (dirtyPaths) {
+                mPaused = true;
+            }
+        }
+
+        @Override
+        public void resume() {
+            synchronized (dirtyPaths) {
+                mPaused = false;
+                this.requestRescan();
+            }
+        }
+
+        private void initialScan() {
+            if (mStopped) {
+                // unwatched before the first scan
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                this.loadAndScan();
+                mScanned = true;
+            } finally {
+                METRICS.scanDuration.record((System.nanoTime() - start) / 1000000);
+            }
+        }
+
+        private void loadAndScan() {
+            Map<String, SimpleFileMetadata> snapshot = mOptions.snapshotDir == null ? null :
+                WatcherSnapshot.load(WatcherSnapshot.fileFor(mOptions.snapshotDir, mPath), mPath);
+            if (snapshot == null) {
+                addTree(mPath, false); // skip initial notification
+                mDirty = true;
+                return;
+            }
+
+            // report only what changed while the app wasn't running
+            metaDb.putAll(snapshot);
+            addTree(mPath, true);
+            for (Map.Entry<String, SimpleFileMetadata> entry : snapshot.entrySet()) {
+                // untouched by the walk, so it's gone
+                if (metaDb.get(entry.getKey()) == entry.getValue()) {
+                    removeFile(entry.getKey());
+                }
+            }
+            settle();
+        }
+
+        private void save() {
+            if (mOptions.snapshotDir != null && mDirty) {
+                WatcherSnapshot.save(WatcherSnapshot.fileFor(mOptions.snapshotDir, mPath), mPath, metaDb);
+                mDirty = false;
+            }
+        }
+
+        private void onDirEvent(String dir, int event, String name) {
+            synchronized (dirtyPaths) {
+                if (dirtyPaths.size() >= MAX_DIRTY_PATHS) {
+                    // the whole tree gets rescanned, the paths aren't needed anymore
+                    rescanPending = true;
+                    dirtyPaths.clear();
+                } else if (rescanPending) {
+                    // already covered by the rescan
+                } else if (name == null) {
+                    // DELETE_SELF or MOVE_SELF
+                    dirtyPaths.add(dir);
+                } else {
+                    dirtyPaths.add(dir + "/" + name);
+                }
+
+                if (!mPaused) {
+                    this.scheduleFlush();
+                }
+            }
+        }
+
+        // holding dirtyPaths
+        private void requestRescan() {
+            rescanPending = true;
+            dirtyPaths.clear();
+            this.scheduleFlush();
+        }
+
+        // holding dirtyPaths
+        private void scheduleFlush() {
+            if (!flushScheduled && !mStopped) {
+                try {
+                    // let bursts of MODIFY from a single save settle before we stat
+                    mScheduler.schedule(this::flush, SETTLE_DELAY_MS, TimeUnit.MILLISECONDS);
+                    flushScheduled = true;
+                } catch (RejectedExecutionException e) {
+                    // plugin destroyed
+                }
+            }
+        }
+
+        private void flush() {
+            long start = System.nanoTime();
+            try {
+                this.reconcile();
+            } finally {
+                METRICS.scanDuration.record((System.nanoTime() - start) / 1000000);
+            }
+        }
+
+        private void reconcile() {
+            String[] paths;
+            boolean rescan;
+            synchronized (dirtyPaths) {
+                paths = dirtyPaths.toArray(new String[0]);
+                dirtyPaths.clear();
+                rescan = rescanPending;
+                rescanPending = false;
+                flushScheduled = false;
+            }
+            if (mStopped || !mScanned) {
+                return;
+            }
+
+            if (rescan) {
+                // events may have been dropped by the kernel or too many piled up, reconcile the whole tree
+                Log.i("FsWatcher", "rescanning " + mPath);
+                addTree(mPath, true);
+                removeMissing(mPath);
+                settle();
+                return;
+            }
+
+            for (String path : paths) {
+                StructStat stat = statEntry(path);
+                if (stat != null && OsConstants.S_ISDIR(stat.st_mode)) {
+                    if (!observers.containsKey(path) && !mRules.isIgnored(path, true)) {
+                        addTree(path, true);
+                    }
+                } else if (stat != null && OsConstants.S_ISREG(stat.st_mode)) {
+                    if (!mRules.isIgnored(path, false)) {
+                        updateFile(path, stat, true);
+                    }
+                } else if (observers.containsKey(path)) {
+                    removeTree(path);
+                } else {
+                    removeFile(path);
+                }
+            }
+            settle();
+        }
+
+        private void removeFile(String path) {
+            SimpleFileMetadata oldMeta = metaDb.remove(path);
+            if (oldMeta != null) {
+                mDirty = true;
+                mRemoved.put(path, oldMeta);
+            }
+        }
+
+        // a move shows up as a removal plus an add within the same flush
+        private void settle() {
+            Map<String, String> renames = matchRenames(mRemoved, mCreated, metaDb);
+            for (String path : mCreated) {
+                String oldPath = renames.get(path);
+                SimpleFileMetadata newMeta = metaDb.get(path);
+                if (oldPath != null) {
+                    newMeta.hash = mRemoved.remove(oldPath).hash;
+                    mRoot.onObserverRename(oldPath, path, newMeta);
+                    Log.d("FsWatcher", "rename " + oldPath + " -> " + path);
+                } else {
+                    if (mOptions.contentHash) {
+                        newMeta.hash = fingerprint(path, newMeta);
+                    }
+                    mRoot.onObserverEvent(FileObserver.CREATE, path, newMeta);
+                    Log.d("FsWatcher", "create " + path);
+                }
+            }
+            for (String path : mRemoved.keySet()) {
+                mRoot.onObserverDelete(path);
+            }
+            mCreated.clear();
+            mRemoved.clear();
+        }
+
+        private void addTree(String root, boolean shouldNotify) {
+            Stack<String> paths = new Stack<>();
+            paths.push(root);
+            while (!paths.isEmpty()) {
+                String dir = paths.pop();
+                // watch before listing, so files created in between are not missed
+                if (!observers.containsKey(dir)) {
+                    DirObserver observer = new DirObserver(dir);
+                    observers.put(dir, observer);
+                    observer.startWatching();
+                }
+
+                String[] names = listDir(dir);
+                if (names != null) {
+                    for (String name : names) {
+                        String path = dir + "/" + name;
+                        StructStat stat = statEntry(path);
+                        if (stat == null) {
+                            continue;
+                        }
+                        if (OsConstants.S_ISDIR(stat.st_mode)) {
+                            if (!mRules.isIgnored(path, true)) {
+                                paths.push(path);
+                            }
+                        } else if (OsConstants.S_ISREG(stat.st_mode) && !mRules.isIgnored(path, false)) {
+                            updateFile(path, stat, shouldNotify);
+                        }
+                    }
+                }
+            }
+        }
+
+        private void updateFile(String path, StructStat stat, boolean shouldNotify) {
+            SimpleFileMetadata newMeta = new SimpleFileMetadata(stat);
+            SimpleFileMetadata oldMeta = metaDb.put(path, newMeta);
+            if (oldMeta == null || !oldMeta.equals(newMeta)) {
+                mDirty = true;
+            }
+            if (oldMeta != null && oldMeta.equals(newMeta)) {
+                newMeta.hash = oldMeta.hash;
+            }
+            if (!shouldNotify) {
+                return;
+            }
+            if (oldMeta == null) {
+                mCreated.add(path);
+            } else if (!oldMeta.equals(newMeta) && !(mOptions.contentHash && isSameContent(path, oldMeta, newMeta))) {
+                mRoot.onObserverEvent(FileObserver.MODIFY, path, newMeta);
+                Log.d("FsWatcher", "changed " + path);
+            }
+        }
+
+        private void removeTree(String dir) {
+            SortedMap<String, DirObserver> subdirs = observers.subMap(dir + "/", dir + "/\uffff");
+            for (DirObserver observer : subdirs.values()) {
+                observer.stopWatching();
+            }
+            subdirs.clear();
+            DirObserver observer = observers.remove(dir);
+            if (observer != null) {
+                observer.stopWatching();
+            }
+
+            SortedMap<String, SimpleFileMetadata> files = metaDb.subMap(dir + "/", dir + "/\uffff");
+            if (!files.isEmpty()) {
+                mDirty = true;
+                mRemoved.putAll(files);
+                files.clear();
+            }
+        }
+
+        // drop what a rescan no longer found on disk
+        private void removeMissing(String root) {
+            for (String dir : observers.keySet().toArray(new String[0])) {
+                if (observers.containsKey(dir) && !new File(dir).isDirectory()) {
+                    removeTree(dir);
+                }
+            }
+            for (String path : metaDb.keySet().toArray(new String[0])) {
+                if (!new File(path).isFile()) {
+                    removeFile(path);
+                }
+            }
+        }
+
+        private class DirObserver extends FileObserver {
+            private final String mDir;
+
+            @SuppressWarnings("deprecation") // File constructor is API 29+
+            DirObserver(String dir) {
+                super(dir, MASK);
+                mDir = dir;
+            }
+
+            @Override
+            public void onEvent(int event, String name) {
+                onDirEvent(mDir, event, name);
+            }
         }
     }
 }
@@ -0,0 +1,653 @@
+package com.logseq.app;
+
+import android.system.OsConstants;
+import android.system.StructStat;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.Stack;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.regex.Pattern;
+
+// Inverted index of a graph's blocks, so the native search field can answer without the WebView
+// and before the graph is loaded there. A block (see BlockOutliner) is a document, its words are
+// folded (lower case, no diacritics) and CJK characters count as words of their own. A query
+// matches blocks holding all of its words, the last one as a prefix since it's still being typed;
+// shorter blocks rank first.
+//
+// Kept up to date from the root's events and saved next to the watcher snapshots, a cold start
+// loads it and only re-reads the files whose stat changed since. Updates run on the index's own
+// thread, queries on the caller's.
+//
+// A hit's page is named at query time, see PageNames: the name of a page without title:: depends on
+// the graph's config, which may change after its files were indexed.
+final class FullTextIndex {
+    static final class Hit {
+        // relative to the root
+        final String path;
+        final String page;
+        // first line of the block
+        final String title;
+        // id:: of the block, null when it has none
+        final String uuid;
+        final int start;
+        // lower ranks first, comparable across the indexes of different roots
+        final int rank;
+
+        Hit(String path, String page, String title, String uuid, int start, int rank) {
+            this.path = path;
+            this.page = page;
+            this.title = title;
+            this.uuid = uuid;
+            this.start = start;
+            this.rank = rank;
+        }
+    }
+
+    private static final class FileEntry {
+        final long mtime;
+        final long size;
+        // title:: of the page, null when it has none
+        final String page;
+        final int[] docs;
+
+        FileEntry(long mtime, long size, String page, int[] docs) {
+            this.mtime = mtime;
+            this.size = size;
+            this.page = page;
+            this.docs = docs;
+        }
+    }
+
+    // a block read from a file, before it gets a doc id
+    private static final class Doc {
+        final int start;
+        final String title;
+        final String uuid;
+        final String[] tokens;
+
+        Doc(int start, String title, String uuid, String[] tokens) {
+            this.start = start;
+            this.title = title;
+            this.uuid = uuid;
+            this.tokens = tokens;
+        }
+    }
+
+    private static final class Postings {
+        int[] ids = new int[4];
+        int size = 0;
+
+        void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+    }
+
+    private static final int MAGIC = 0x4c535154; // "LSQT"
+    private static final int VERSION = 2;
+    private static final int TITLE_MAX_LENGTH = 160;
+    private static final int TOKEN_MAX_LENGTH = 64;
+    // words a prefix may stand for, a one-letter prefix must not walk the whole vocabulary
+    private static final int PREFIX_MAX_EXPANSION = 512;
+    private static final Pattern PROPERTY_LINE = Pattern.compile("^[ \\t]*(- )?[A-Za-z0-9_][A-Za-z0-9_\\-.]*::.*$");
+
+    private final String mRoot;
+    private final IgnoreRules mRules;
+    private final File mFile;
+    private final ExecutorService mExecutor;
+    private volatile boolean mClosed = false;
+    private volatile PageNames mNames = new PageNames(null, null);
+
+    // guarded by this
+    private final Map<String, FileEntry> mFiles = new HashMap<>();
+    private final Map<String, Postings> mPostings = new HashMap<>();
+    // the vocabulary in order, for prefixes
+    private final TreeSet<String> mTokens = new TreeSet<>();
+    private int mDocCount = 0;
+    private int mDead = 0;
+    // per doc id; file null once the doc is removed
+    private String[] mDocFile = new String[256];
+    private int[] mDocStart = new int[256];
+    private int[] mDocLength = new int[256];
+    private String[] mDocTitle = new String[256];
+    private String[] mDocUuid = new String[256];
+    private String[][] mDocTokens = new String[256][];
+    private boolean mDirty = false;
+
+    // root is canonical, as the paths in events
+    FullTextIndex(String root, IgnoreRules rules, File file) {
+        mRoot = root;
+        mRules = rules;
+        mFile = file;
+        mExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "FsWatcher-index"));
+    }
+
+    public static File fileFor(File baseDir, String root) {
+        return new File(new File(baseDir, "fs-watcher"), WatcherSnapshot.fileName(root) + ".fulltext");
+    }
+
+    // loads the saved index, then catches up with the files changed since it was saved
+    public void start() {
+        this.post(() -> {
+            mNames = PageNames.load(mRoot);
+            this.load();
+            this.reconcile();
+            this.save();
+        });
+    }
+
+    public void update(String path) {
+        if (PageNames.CONFIG_PATH.equals(this.relativePath(path))) {
+            this.post(() -> mNames = PageNames.load(mRoot));
+            return;
+        }
+        this.post(() -> this.indexFile(path));
+    }
+
+    public void remove(String path) {
+        String relpath = this.relativePath(path);
+        if (PageNames.CONFIG_PATH.equals(relpath)) {
+            this.post(() -> mNames = PageNames.load(mRoot));
+        } else if (relpath != null) {
+            this.post(() -> this.removeFile(relpath));
+        }
+    }
+
+    public void persist() {
+        this.post(this::save);
+    }
+
+    public void close() {
+        mClosed = true;
+        this.post(this::save);
+        mExecutor.shutdown();
+    }
+
+    public synchronized int size() {
+        return mDocCount - mDead;
+    }
+
+    // at most limit hits, best first; empty for a query without words
+    public List<Hit> search(String query, int limit) {
+        List<String> words = new ArrayList<>();
+        tokenize(query, 0, query.length(), words);
+        boolean prefix = !query.isEmpty() && !Character.isWhitespace(query.charAt(query.length() - 1));
+        List<Hit> hits = new ArrayList<>();
+        if (words.isEmpty() || limit <= 0) {
+            return hits;
+        }
+
+        synchronized (this) {
+            List<int[]> lists = new ArrayList<>();
+            for (int i = 0; i < words.size(); i++) {
+                int[] ids = prefix && i == words.size() - 1 ? this.prefixPostings(words.get(i)) : this.exactPostings(words.get(i));
+                if (ids.length == 0) {
+                    return hits;
+                }
+                lists.add(ids);
+            }
+            lists.sort((a, b) -> Integer.compare(a.length, b.length));
+
+            Comparator<Integer> ranking = (a, b) ->
+                mDocLength[a] != mDocLength[b] ? Integer.compare(mDocLength[a], mDocLength[b]) : Integer.compare(a, b);
+            // worst hit on top, replaced as better ones come
+            PriorityQueue<Integer> best = new PriorityQueue<>(limit + 1, ranking.reversed());
+            int[] first = lists.get(0);
+            candidates:
+            for (int id : first) {
+                if (mDocFile[id] == null) {
+                    continue;
+                }
+                for (int l = 1; l < lists.size(); l++) {
+                    if (Arrays.binarySearch(lists.get(l), id) < 0) {
+                        continue candidates;
+                    }
+                }
+                best.add(id);
+                if (best.size() > limit) {
+                    best.poll();
+                }
+            }
+
+            Integer[] ids = best.toArray(new Integer[0]);
+            Arrays.sort(ids, ranking);
+            PageNames names = mNames;
+            for (int id : ids) {
+                FileEntry file = mFiles.get(mDocFile[id]);
+                String page = names.pageName(mDocFile[id], file == null ? null : file.page);
+                hits.add(new Hit(mDocFile[id], page, mDocTitle[id], mDocUuid[id], mDocStart[id], mDocLength[id]));
+            }
+        }
+        return hits;
+    }
+
+    private void post(Runnable task) {
+        try {
+            mExecutor.execute(() -> {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    Log.e("FsWatcher", "full-text index task failed", e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // closed
+        }
+    }
+
+    // holding the lock
+    private int[] exactPostings(String word) {
+        Postings postings = mPostings.get(word);
+        return postings == null ? new int[0] : Arrays.copyOf(postings.ids, postings.size);
+    }
+
+    // holding the lock; sorted union of the postings of every word starting with prefix
+    private int[] prefixPostings(String prefix) {
+        boolean[] seen = new boolean[mDocCount];
+        int count = 0;
+        int expanded = 0;
+        for (String word : mTokens.tailSet(prefix, true)) {
+            if (!word.startsWith(prefix) || expanded++ >= PREFIX_MAX_EXPANSION) {
+                break;
+            }
+            Postings postings = mPostings.get(word);
+            for (int i = 0; i < postings.size; i++) {
+                if (!seen[postings.ids[i]]) {
+                    seen[postings.ids[i]] = true;
+                    count++;
+                }
+            }
+        }
+        int[] ids = new int[count];
+        for (int id = 0, n = 0; n < count; id++) {
+            if (seen[id]) {
+                ids[n++] = id;
+            }
+        }
+        return ids;
+    }
+
+    private void indexFile(String path) {
+        String relpath = this.relativePath(path);
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        if (relpath == null || !BlockOutliner.isOutlined(name) || mRules.isIgnored(path, false)) {
+            return;
+        }
+        StructStat stat = FsWatcher.statEntry(path);
+        if (stat == null || !OsConstants.S_ISREG(stat.st_mode)) {
+            this.removeFile(relpath);
+            return;
+        }
+        String content;
+        try {
+            content = FsWatcher.getFileContents(new File(path));
+        } catch (IOException e) {
+            Log.w("FsWatcher", "cannot index " + path, e);
+            return;
+        }
+
+        BlockOutliner.Outline outline = BlockOutliner.parse(content, name.toLowerCase().endsWith(".org"));
+        String page = titleProperty(outline);
+        List<Doc> docs = new ArrayList<>(outline.count);
+        Set<String> tokens = new LinkedHashSet<>();
+        for (int b = 0; b < outline.count; b++) {
+            int start = outline.starts[b];
+            int end = outline.ends[b];
+            tokens.clear();
+            String title = null;
+            for (int lineStart = start; lineStart < end; ) {
+                int lineEnd = content.indexOf('\n', lineStart);
+                if (lineEnd < 0 || lineEnd > end) {
+                    lineEnd = end;
+                }
+                // properties are metadata, except on the pre-block where they're the page's
+                if (outline.levels[b] == 0 || !PROPERTY_LINE.matcher(content.substring(lineStart, lineEnd)).matches()) {
+                    List<String> words = new ArrayList<>();
+                    tokenize(content, lineStart, lineEnd, words);
+                    tokens.addAll(words);
+                    if (title == null && !words.isEmpty()) {
+                        title = titleOf(content, lineStart, lineEnd);
+                    }
+                }
+                lineStart = lineEnd + 1;
+            }
+            if (!tokens.isEmpty()) {
+                docs.add(new Doc(start, title, outline.ids[b], tokens.toArray(new String[0])));
+            }
+        }
+
+        synchronized (this) {
+            this.removeFileLocked(relpath);
+            this.addFileLocked(relpath, stat.st_mtime, stat.st_size, page, docs);
+        }
+    }
+
+    private synchronized void removeFile(String relpath) {
+        this.removeFileLocked(relpath);
+    }
+
+    private void removeFileLocked(String relpath) {
+        FileEntry entry = mFiles.remove(relpath);
+        if (entry == null) {
+            return;
+        }
+        for (int id : entry.docs) {
+            mDocFile[id] = null;
+            mDocTitle[id] = null;
+            mDocTokens[id] = null;
+        }
+        mDead += entry.docs.length;
+        mDirty = true;
+        // dead docs stay in the postings until they outnumber the live ones
+        if (mDead > 1024 && mDead > mDocCount - mDead) {
+            this.compact();
+        }
+    }
+
+    private void addFileLocked(String relpath, long mtime, long size, String page, List<Doc> docs) {
+        int[] ids = new int[docs.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = this.addDoc(relpath, docs.get(i));
+        }
+        mFiles.put(relpath, new FileEntry(mtime, size, page, ids));
+        mDirty = true;
+    }
+
+    private int addDoc(String relpath, Doc doc) {
+        if (mDocCount == mDocFile.length) {
+            int size = mDocCount * 2;
+            mDocFile = Arrays.copyOf(mDocFile, size);
+            mDocStart = Arrays.copyOf(mDocStart, size);
+            mDocLength = Arrays.copyOf(mDocLength, size);
+            mDocTitle = Arrays.copyOf(mDocTitle, size);
+            mDocUuid = Arrays.copyOf(mDocUuid, size);
+            mDocTokens = Arrays.copyOf(mDocTokens, size);
+        }
+        int id = mDocCount++;
+        mDocFile[id] = relpath;
+        mDocStart[id] = doc.start;
+        mDocLength[id] = doc.tokens.length;
+        mDocTitle[id] = doc.title;
+        mDocUuid[id] = doc.uuid;
+        String[] tokens = new String[doc.tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            Postings postings = mPostings.get(doc.tokens[i]);
+            if (postings == null) {
+                postings = new Postings();
+                mPostings.put(doc.tokens[i], postings);
+                mTokens.add(doc.tokens[i]);
+                tokens[i] = doc.tokens[i];
+            } else {
+                // one instance per word, the vocabulary's
+                tokens[i] = mTokens.ceiling(doc.tokens[i]);
+            }
+            postings.add(id);
+        }
+        mDocTokens[id] = tokens;
+        return id;
+    }
+
+    // renumbers the live docs and rebuilds the postings from them
+    private void compact() {
+        Map<String, FileEntry> files = new HashMap<>(mFiles);
+        String[][] tokens = mDocTokens;
+        String[] titles = mDocTitle;
+        String[] uuids = mDocUuid;
+        int[] starts = mDocStart;
+
+        mFiles.clear();
+        mPostings.clear();
+        mTokens.clear();
+        mDocCount = 0;
+        mDead = 0;
+        mDocFile = new String[Math.max(256, files.size() * 4)];
+        mDocStart = new int[mDocFile.length];
+        mDocLength = new int[mDocFile.length];
+        mDocTitle = new String[mDocFile.length];
+        mDocUuid = new String[mDocFile.length];
+        mDocTokens = new String[mDocFile.length][];
+        for (Map.Entry<String, FileEntry> file : files.entrySet()) {
+            List<Doc> docs = new ArrayList<>(file.getValue().docs.length);
+            for (int id : file.getValue().docs) {
+                docs.add(new Doc(starts[id], titles[id], uuids[id], tokens[id]));
+            }
+            this.addFileLocked(file.getKey(), file.getValue().mtime, file.getValue().size, file.getValue().page, docs);
+        }
+    }
+
+    // re-reads what changed while the app wasn't running, forgets what's gone
+    private void reconcile() {
+        Set<String> seen = new HashSet<>();
+        Stack<String> dirs = new Stack<>();
+        dirs.push(mRoot);
+        while (!dirs.isEmpty() && !mClosed) {
+            String dir = dirs.pop();
+            String[] names = FsWatcher.listDir(dir);
+            if (names == null) {
+                continue;
+            }
+            for (String name : names) {
+                String path = dir + "/" + name;
+                StructStat stat = FsWatcher.statEntry(path);
+                if (stat == null) {
+                    continue;
+                }
+                if (OsConstants.S_ISDIR(stat.st_mode)) {
+                    if (!mRules.isIgnored(path, true)) {
+                        dirs.push(path);
+                    }
+                } else if (OsConstants.S_ISREG(stat.st_mode) && BlockOutliner.isOutlined(name) && !mRules.isIgnored(path, false)) {
+                    String relpath = path.substring(mRoot.length() + 1);
+                    seen.add(relpath);
+                    FileEntry entry;
+                    synchronized (this) {
+                        entry = mFiles.get(relpath);
+                    }
+                    if (entry == null || entry.mtime != stat.st_mtime || entry.size != stat.st_size) {
+                        this.indexFile(path);
+                    }
+                }
+            }
+        }
+        if (mClosed) {
+            return;
+        }
+        synchronized (this) {
+            for (String relpath : new ArrayList<>(mFiles.keySet())) {
+                if (!seen.contains(relpath)) {
+                    this.removeFileLocked(relpath);
+                }
+            }
+        }
+    }
+
+    // Layout: magic, version, root, file count, then per file: path relative to root, mtime, size,
+    // title:: ("" for none), doc count and per doc: start, title, uuid ("" for none), word count, words.
+    private void load() {
+        if (!mFile.isFile()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile), 64 * 1024))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(mRoot)) {
+                Log.w("FsWatcher", "ignore incompatible full-text index " + mFile);
+                return;
+            }
+            int files = in.readInt();
+            synchronized (this) {
+                for (int f = 0; f < files; f++) {
+                    String relpath = in.readUTF();
+                    long mtime = in.readLong();
+                    long size = in.readLong();
+                    String page = in.readUTF();
+                    if (page.isEmpty()) {
+                        page = null;
+                    }
+                    int count = in.readInt();
+                    List<Doc> docs = new ArrayList<>(count);
+                    for (int d = 0; d < count; d++) {
+                        int start = in.readInt();
+                        String title = in.readUTF();
+                        String uuid = in.readUTF();
+                        String[] tokens = new String[in.readInt()];
+                        for (int t = 0; t < tokens.length; t++) {
+                            tokens[t] = in.readUTF();
+                        }
+                        docs.add(new Doc(start, title, uuid.isEmpty() ? null : uuid, tokens));
+                    }
+                    this.addFileLocked(relpath, mtime, size, page, docs);
+                }
+                mDirty = false;
+            }
+            Log.i("FsWatcher", "loaded full-text index of " + files + " files for " + mRoot);
+        } catch (IOException e) {
+            Log.w("FsWatcher", "cannot load full-text index " + mFile, e);
+            synchronized (this) {
+                mFiles.clear();
+                mPostings.clear();
+                mTokens.clear();
+                mDocCount = 0;
+                mDead = 0;
+            }
+        }
+    }
+
+    private void save() {
+        File dir = mFile.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            Log.w("FsWatcher", "cannot create index dir " + dir);
+            return;
+        }
+        // write aside then rename, as WatcherSnapshot does
+        File tmp = new File(mFile.getPath() + ".tmp");
+        synchronized (this) {
+            if (!mDirty) {
+                return;
+            }
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(mRoot);
+                out.writeInt(mFiles.size());
+                for (Map.Entry<String, FileEntry> file : mFiles.entrySet()) {
+                    FileEntry entry = file.getValue();
+                    out.writeUTF(file.getKey());
+                    out.writeLong(entry.mtime);
+                    out.writeLong(entry.size);
+                    out.writeUTF(entry.page == null ? "" : entry.page);
+                    out.writeInt(entry.docs.length);
+                    for (int id : entry.docs) {
+                        out.writeInt(mDocStart[id]);
+                        out.writeUTF(mDocTitle[id] == null ? "" : mDocTitle[id]);
+                        out.writeUTF(mDocUuid[id] == null ? "" : mDocUuid[id]);
+                        out.writeInt(mDocTokens[id].length);
+                        for (String token : mDocTokens[id]) {
+                            out.writeUTF(token);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                Log.w("FsWatcher", "cannot save full-text index " + mFile, e);
+                tmp.delete();
+                return;
+            }
+            mDirty = false;
+        }
+        if (!tmp.renameTo(mFile)) {
+            Log.w("FsWatcher", "cannot replace full-text index " + mFile);
+            tmp.delete();
+        }
+    }
+
+    private String relativePath(String path) {
+        return path.startsWith(mRoot + "/") ? path.substring(mRoot.length() + 1) : null;
+    }
+
+    // title:: of the page, null when it has none
+    private static String titleProperty(BlockOutliner.Outline outline) {
+        if (outline.count > 0 && outline.levels[0] == 0 && outline.properties[0] != null) {
+            String[] props = outline.properties[0];
+            for (int p = 0; p < props.length; p += 2) {
+                if (props[p].equalsIgnoreCase("title") && !props[p + 1].isEmpty()) {
+                    return props[p + 1];
+                }
+            }
+        }
+        return null;
+    }
+
+    // the line without its indentation and bullet, shortened
+    private static String titleOf(String content, int from, int to) {
+        while (from < to && Character.isWhitespace(content.charAt(from))) {
+            from++;
+        }
+        while (from < to && (content.charAt(from) == '-' || content.charAt(from) == '*' || content.charAt(from) == '#')) {
+            from++;
+        }
+        String title = content.substring(from, to).trim();
+        return title.length() > TITLE_MAX_LENGTH ? title.substring(0, TITLE_MAX_LENGTH) + "\u2026" : title;
+    }
+
+    // folded words of text[from, to), in order
+    static void tokenize(String text, int from, int to, List<String> out) {
+        int i = from;
+        while (i < to) {
+            int c = text.codePointAt(i);
+            int n = Character.charCount(c);
+            if (isIdeographic(c)) {
+                out.add(new String(Character.toChars(Character.toLowerCase(c))));
+                i += n;
+            } else if (Character.isLetterOrDigit(c)) {
+                int start = i;
+                boolean ascii = true;
+                while (i < to) {
+                    c = text.codePointAt(i);
+                    if (!(Character.isLetterOrDigit(c) || Character.getType(c) == Character.NON_SPACING_MARK) || isIdeographic(c)) {
+                        break;
+                    }
+                    ascii &= c < 0x80;
+                    i += Character.charCount(c);
+                }
+                String word = text.substring(start, Math.min(i, start + TOKEN_MAX_LENGTH)).toLowerCase();
+                if (!ascii) {
+                    word = Normalizer.normalize(word, Normalizer.Form.NFD).replaceAll("\\p{M}+", "");
+                }
+                out.add(word);
+            } else {
+                i += n;
+            }
+        }
+    }
+
+    private static boolean isIdeographic(int c) {
+        if (c < 0x2e80) {
+            return false;
+        }
+        Character.UnicodeScript script = Character.UnicodeScript.of(c);
+        return script == Character.UnicodeScript.HAN || script == Character.UnicodeScript.HIRAGANA
+            || script == Character.UnicodeScript.KATAKANA || script == Character.UnicodeScript.HANGUL;
+    }
+}
@@ -0,0 +1,283 @@
+package com.logseq.app;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.system.StructStat;
+import android.util.Log;
+
+import com.getcapacitor.JSObject;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Stack;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Page saves, written crash-safe and in groups. Writes arriving within the window are committed
+// together on the writer thread:
+// 1. each goes to a temp file next to its target
+// 2. all temp files are synced, then renamed into place
+// 3. each directory touched is synced once, however many files of it were renamed
+// A write still waiting for its commit is replaced by a newer one to the same path, only the
+// newest content reaches the disk and the older one reports itself superseded. The replacement
+// keeps the permissions of the file it replaces.
+//
+// A crash between the sync and the rename leaves the temp file behind, sweepTemps() removes those
+// when a graph is watched.
+final class GroupCommitWriter {
+    // ignored by the watchers, see IgnoreRules
+    static final String TEMP_SUFFIX = ".logseq-tmp";
+
+    // called on the writer thread; only onFailed of a write arriving after close() is called on the
+    // caller's, from write() itself
+    interface Callback {
+        // synced but not renamed yet: the stat the target will have, to register the write
+        void onSynced(StructStat stat);
+
+        void onCommitted(StructStat stat);
+
+        void onSuperseded();
+
+        void onFailed(Exception e);
+    }
+
+    private static final class Request {
+        final File file;
+        final byte[] content;
+        final Callback callback;
+        File temp;
+        FileOutputStream out;
+        StructStat stat;
+
+        Request(File file, byte[] content, Callback callback) {
+            this.file = file;
+            this.content = content;
+            this.callback = callback;
+        }
+    }
+
+    private final ScheduledThreadPoolExecutor mExecutor;
+    private final long mWindow;
+    // by absolute path, in arrival order
+    private final Map<String, Request> mPending = new LinkedHashMap<>();
+    private boolean mScheduled = false;
+    private long mTempIds = 0;
+    // temp files of commits in progress, sweepTemps() leaves them alone
+    private final Set<String> mLiveTemps = new HashSet<>();
+
+    private long mWrites = 0;
+    private long mSuperseded = 0;
+    private long mCommits = 0;
+    private long mSyncs = 0;
+
+    GroupCommitWriter(long window) {
+        mWindow = window;
+        mExecutor = new ScheduledThreadPoolExecutor(1, r -> new Thread(r, "FsWatcher-writer"));
+    }
+
+    public void write(File file, byte[] content, Callback callback) {
+        Request superseded;
+        synchronized (this) {
+            if (!mScheduled) {
+                try {
+                    mExecutor.schedule(this::commit, mWindow, TimeUnit.MILLISECONDS);
+                    mScheduled = true;
+                } catch (RejectedExecutionException e) {
+                    callback.onFailed(e);
+                    return;
+                }
+            }
+            mWrites++;
+            superseded = mPending.put(file.getAbsolutePath(), new Request(file, content, callback));
+            if (superseded != null) {
+                mSuperseded++;
+            }
+        }
+        if (superseded != null) {
+            try {
+                mExecutor.execute(superseded.callback::onSuperseded);
+            } catch (RejectedExecutionException e) {
+                // closed in between, the commit scheduled above still runs on the writer thread
+                superseded.callback.onSuperseded();
+            }
+        }
+    }
+
+    // Removes temp files left in root by a crash, skipping what rules ignore. Lists the whole tree,
+    // so it's for a background thread; writes go on meanwhile.
+    public void sweepTemps(String root, IgnoreRules rules) {
+        Stack<String> dirs = new Stack<>();
+        dirs.push(root);
+        int removed = 0;
+        while (!dirs.isEmpty()) {
+            String dir = dirs.pop();
+            String[] names = new File(dir).list();
+            if (names == null) {
+                continue;
+            }
+            for (String name : names) {
+                String path = dir + "/" + name;
+                if (name.startsWith(".") && name.endsWith(TEMP_SUFFIX)) {
+                    synchronized (this) {
+                        if (!mLiveTemps.contains(path) && new File(path).delete()) {
+                            removed++;
+                        }
+                    }
+                } else if (new File(path).isDirectory() && !rules.isIgnored(path, true)) {
+                    dirs.push(path);
+                }
+            }
+        }
+        if (removed > 0) {
+            Log.i("FsWatcher", "removed " + removed + " stale temp files from " + root);
+        }
+    }
+
+    public synchronized void putStats(JSObject stats) {
+        JSObject obj = new JSObject();
+        obj.put("writes", mWrites);
+        obj.put("superseded", mSuperseded);
+        obj.put("commits", mCommits);
+        obj.put("syncs", mSyncs);
+        stats.put("writer", obj);
+    }
+
+    // commits already scheduled still run
+    public void close() {
+        mExecutor.shutdown();
+    }
+
+    private void commit() {
+        List<Request> batch;
+        synchronized (this) {
+            batch = new ArrayList<>(mPending.values());
+            mPending.clear();
+            mScheduled = false;
+            mCommits++;
+        }
+
+        List<Request> written = new ArrayList<>();
+        for (Request request : batch) {
+            try {
+                this.writeTemp(request);
+                written.add(request);
+            } catch (IOException e) {
+                this.fail(request, e);
+            }
+        }
+
+        // the barrier: nothing is renamed before every temp file of the group is on disk
+        List<Request> synced = new ArrayList<>();
+        for (Request request : written) {
+            try {
+                request.out.getFD().sync();
+                request.out.close();
+                request.stat = Os.stat(request.temp.getPath());
+                synced.add(request);
+            } catch (IOException | ErrnoException e) {
+                this.fail(request, e);
+            }
+        }
+        int syncs = written.size();
+
+        Set<String> dirs = new LinkedHashSet<>();
+        List<Request> renamed = new ArrayList<>();
+        for (Request request : synced) {
+            try {
+                request.callback.onSynced(request.stat);
+                Os.rename(request.temp.getPath(), request.file.getPath());
+                this.release(request);
+                dirs.add(request.file.getParent());
+                renamed.add(request);
+            } catch (ErrnoException e) {
+                this.fail(request, e);
+            }
+        }
+
+        // makes the renames themselves durable
+        for (String dir : dirs) {
+            FileDescriptor fd = null;
+            try {
+                fd = Os.open(dir, OsConstants.O_RDONLY, 0);
+                Os.fsync(fd);
+                syncs++;
+            } catch (ErrnoException e) {
+                Log.w("FsWatcher", "cannot sync " + dir, e);
+            } finally {
+                if (fd != null) {
+                    try {
+                        Os.close(fd);
+                    } catch (ErrnoException e) {
+                        // nothing to do
+                    }
+                }
+            }
+        }
+        synchronized (this) {
+            mSyncs += syncs;
+        }
+
+        for (Request request : renamed) {
+            request.callback.onCommitted(request.stat);
+        }
+    }
+
+    private void writeTemp(Request request) throws IOException {
+        File parent = request.file.getParentFile();
+        if (parent != null && !parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("cannot create " + parent);
+        }
+        long id;
+        synchronized (this) {
+            id = ++mTempIds;
+        }
+        request.temp = new File(parent, "." + request.file.getName() + "." + id + TEMP_SUFFIX);
+        synchronized (this) {
+            // before the file exists, so a sweep never sees it unclaimed
+            mLiveTemps.add(request.temp.getPath());
+        }
+        request.out = new FileOutputStream(request.temp);
+        request.out.write(request.content);
+        try {
+            // the rename replaces the inode, the new one would get default permissions
+            int mode = Os.stat(request.file.getPath()).st_mode & 07777;
+            Os.fchmod(request.out.getFD(), mode);
+        } catch (ErrnoException e) {
+            if (e.errno != OsConstants.ENOENT) {
+                throw new IOException("cannot keep the mode of " + request.file, e);
+            }
+        }
+    }
+
+    private synchronized void release(Request request) {
+        mLiveTemps.remove(request.temp.getPath());
+    }
+
+    private void fail(Request request, Exception e) {
+        if (request.out != null) {
+            try {
+                request.out.close();
+            } catch (IOException ignored) {
+                // already failing
+            }
+        }
+        if (request.temp != null) {
+            if (!request.temp.delete()) {
+                Log.w("FsWatcher", "cannot remove " + request.temp);
+            }
+            this.release(request);
+        }
+        request.callback.onFailed(e);
+    }
+}
@@ -0,0 +1,209 @@
+package com.logseq.app;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+// gitignore-style rules deciding which parts of a graph the watcher never looks at, compiled once
+// per watch(). Built from the default skip list, the caller's patterns (the graph's :hidden config)
+// and an optional .logseqignore at the graph root.
+//
+// Supported: # comments, ! negation (last match wins), trailing / for directories only, a leading
+// or inner / anchors the pattern to the root, otherwise it matches a name at any depth, and the
+// wildcards *, ?, ** and [...].
+//
+// Rules are checked per entry while walking, so an ignored directory is never listed.
+final class IgnoreRules {
+    public static final String IGNORE_FILE = ".logseqignore";
+
+    private static final List<String> DEFAULTS = Arrays.asList(
+        ".*/",
+        "bak/",
+        "version-files/",
+        "node_modules/",
+        "graphs-txid.edn",
+        "broken-config.edn",
+        "*" + GroupCommitWriter.TEMP_SUFFIX
+    );
+
+    private static class Rule {
+        final boolean negate;
+        final boolean dirOnly;
+        final boolean anchored;
+        // plain names are compared as strings, everything else as a regex
+        final String literal;
+        final Pattern pattern;
+
+        Rule(boolean negate, boolean dirOnly, boolean anchored, String literal, Pattern pattern) {
+            this.negate = negate;
+            this.dirOnly = dirOnly;
+            this.anchored = anchored;
+            this.literal = literal;
+            this.pattern = pattern;
+        }
+
+        boolean matches(String relpath, String name) {
+            String subject = anchored ? relpath : name;
+            return literal != null ? literal.equals(subject) : pattern.matcher(subject).matches();
+        }
+    }
+
+    private final Rule[] mRules;
+    private final int mRootLength;
+    private final boolean mHasAnchored;
+
+    private IgnoreRules(String root, List<Rule> rules) {
+        mRules = rules.toArray(new Rule[0]);
+        mRootLength = root.length() + 1;
+        boolean hasAnchored = false;
+        for (Rule rule : mRules) {
+            hasAnchored |= rule.anchored;
+        }
+        mHasAnchored = hasAnchored;
+    }
+
+    public static IgnoreRules compile(String root, List<String> patterns) {
+        List<Rule> rules = new ArrayList<>();
+        for (String line : DEFAULTS) {
+            addRule(rules, line);
+        }
+        if (patterns != null) {
+            for (String line : patterns) {
+                addRule(rules, line);
+            }
+        }
+
+        File ignoreFile = new File(root, IGNORE_FILE);
+        if (ignoreFile.isFile()) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(ignoreFile), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    addRule(rules, line);
+                }
+            } catch (IOException e) {
+                Log.w("FsWatcher", "cannot read " + ignoreFile, e);
+            }
+        }
+        return new IgnoreRules(root, rules);
+    }
+
+    // path is absolute, under the root these rules were compiled for
+    public boolean isIgnored(String path, boolean isDir) {
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        // only anchored rules look at the whole relative path
+        String relpath = mHasAnchored && path.length() > mRootLength ? path.substring(mRootLength) : name;
+        return isIgnored(relpath, name, isDir);
+    }
+
+    // relpath is relative to the root with / separators, name is its last segment
+    public boolean isIgnored(String relpath, String name, boolean isDir) {
+        boolean ignored = false;
+        for (Rule rule : mRules) {
+            if (rule.negate != ignored || (rule.dirOnly && !isDir)) {
+                // can't change the outcome
+                continue;
+            }
+            if (rule.matches(relpath, name)) {
+                ignored = !rule.negate;
+            }
+        }
+        return ignored;
+    }
+
+    private static void addRule(List<Rule> rules, String line) {
+        String glob = line.trim();
+        if (glob.isEmpty() || glob.startsWith("#")) {
+            return;
+        }
+
+        boolean negate = glob.startsWith("!");
+        if (negate) {
+            glob = glob.substring(1);
+        }
+        boolean dirOnly = glob.endsWith("/");
+        if (dirOnly) {
+            glob = glob.substring(0, glob.length() - 1);
+        }
+        boolean anchored = glob.contains("/");
+        if (glob.startsWith("/")) {
+            glob = glob.substring(1);
+        }
+        if (glob.isEmpty()) {
+            return;
+        }
+
+        boolean literal = true;
+        for (int i = 0; i < glob.length(); i++) {
+            if ("*?[\\".indexOf(glob.charAt(i)) >= 0) {
+                literal = false;
+                break;
+            }
+        }
+        if (literal) {
+            rules.add(new Rule(negate, dirOnly, anchored, glob, null));
+        } else {
+            rules.add(new Rule(negate, dirOnly, anchored, null, Pattern.compile(toRegex(glob))));
+        }
+    }
+
+    static String toRegex(String glob) {
+        StringBuilder sb = new StringBuilder();
+        int n = glob.length();
+        for (int i = 0; i < n; i++) {
+            char c = glob.charAt(i);
+            switch (c) {
+                case '*':
+                    if (i + 1 < n && glob.charAt(i + 1) == '*') {
+                        i++;
+                        if (i + 1 < n && glob.charAt(i + 1) == '/') {
+                            // "**/" is zero or more directories
+                            i++;
+                            sb.append("(?:.*/)?");
+                        } else {
+                            sb.append(".*");
+                        }
+                    } else {
+                        sb.append("[^/]*");
+                    }
+                    break;
+                case '?':
+                    sb.append("[^/]");
+                    break;
+                case '[':
+                    int close = glob.indexOf(']', i + 2);
+                    if (close < 0) {
+                        sb.append("\\[");
+                        break;
+                    }
+                    String set = glob.substring(i + 1, close);
+                    if (set.startsWith("!")) {
+                        set = "^" + set.substring(1);
+                    }
+                    sb.append('[').append(set.replace("\\", "\\\\").replace("[", "\\[")).append(']');
+                    i = close;
+                    break;
+                case '\\':
+                    if (i + 1 < n) {
+                        i++;
+                        sb.append(Pattern.quote(String.valueOf(glob.charAt(i))));
+                    }
+                    break;
+                default:
+                    if ("\\.^$+{}()|".indexOf(c) >= 0) {
+                        sb.append('\\');
+                    }
+                    sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -53,6 +53,8 @@ import com.getcapacitor.Plugin
 import com.getcapacitor.PluginCall
 import com.getcapacitor.PluginMethod
 import com.getcapacitor.annotation.CapacitorPlugin
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
 
 // NOTE: NativeUiUtils and MaterialIconResolver are assumed to be defined elsewhere in your project
 // and are necessary for this code to compile.
@@ -77,6 +79,18 @@ class LiquidTabsPlugin : Plugin() {
     // 💡 NEW: Define padding for the Tab Bar edges (makes it compact and adds left/right space)
     private val TAB_BAR_HORIZONTAL_PADDING = 12.dp
     private val ACCENT_COLOR_HEX = "#6097c7"
+    private val NATIVE_SEARCH_LIMIT = 50
+    private val NATIVE_TITLE_LIMIT = 8
+
+    // Answers the search field natively (seeded titles, FsWatcher's full-text index) while JS is
+    // still busy; the sequence is bumped by every result list shown, so a late native answer
+    // never replaces a newer one.
+    private val nativeSearchExecutor = Executors.newSingleThreadExecutor()
+    private val nativeSearchSeq = AtomicInteger()
+    // page titles and aliases seeded by JS, matched before the full-text hits
+    private val titleMatcher = TitleMatcher()
+    // only touched on nativeSearchExecutor
+    private val titleMatches = IntArray(NATIVE_TITLE_LIMIT)
 
     private fun tabIconResId(tabId: String): Int? = when (tabId) {
         "flashcards" -> R.drawable.ic_tab_flashcards
@@ -133,6 +147,7 @@ class LiquidTabsPlugin : Plugin() {
     @PluginMethod
     fun updateNativeSearchResults(call: PluginCall) {
         val results = parseResults(call.getArray("results"))
+        nativeSearchSeq.incrementAndGet()
         activity?.runOnUiThread {
             ensureSearchUi()
             val container = resultsContainer ?: return@runOnUiThread
@@ -144,6 +159,45 @@ class LiquidTabsPlugin : Plugin() {
         } ?: call.resolve()
     }
 
+    // Seeds the native title matcher: {pages: [{id, title, aliases?}], replace?}. With replace the
+    // previous titles are dropped first, otherwise the given pages are added or updated.
+    @PluginMethod
+    fun setSearchTitles(call: PluginCall) {
+        val pages = call.getArray("pages") ?: run {
+            call.reject("Missing pages")
+            return
+        }
+        val replace = call.getBoolean("replace", false) ?: false
+        nativeSearchExecutor.execute {
+            if (replace) titleMatcher.clear()
+            for (i in 0 until pages.length()) {
+                val obj = pages.optJSONObject(i) ?: continue
+                val id = obj.optString("id", "")
+                val title = obj.optString("title", "")
+                if (id.isBlank() || title.isBlank()) continue
+                val aliases = obj.optJSONArray("aliases")?.let { array ->
+                    Array(array.length()) { index -> array.optString(index, "") }
+                }
+                titleMatcher.put(id, title, aliases)
+            }
+            call.resolve(JSObject().put("size", titleMatcher.size()))
+        }
+    }
+
+    @PluginMethod
+    fun removeSearchTitles(call: PluginCall) {
+        val ids = call.getArray("ids") ?: run {
+            call.reject("Missing ids")
+            return
+        }
+        nativeSearchExecutor.execute {
+            for (i in 0 until ids.length()) {
+                titleMatcher.remove(ids.optString(i))
+            }
+            call.resolve(JSObject().put("size", titleMatcher.size()))
+        }
+    }
+
     /**
      * FIX: Allows the web view to explicitly show the search UI again,
      * typically after backing out of an opened search result item.
@@ -372,7 +426,9 @@ class LiquidTabsPlugin : Plugin() {
                     }
                     override fun beforeTextChanged(s: CharSequence?, start: Int, count: Int, after: Int) {}
                     override fun onTextChanged(s: CharSequence?, start: Int, before: Int, count: Int) {
-                        notifyListeners("searchChanged", JSObject().put("query", s?.toString() ?: ""))
+                        val query = s?.toString() ?: ""
+                        notifyListeners("searchChanged", JSObject().put("query", query))
+                        showNativeResults(query)
                     }
                 })
             }
@@ -464,6 +520,44 @@ class LiquidTabsPlugin : Plugin() {
         adjustWebViewPadding()
     }
 
+    private fun showNativeResults(query: String) {
+        val watcher = bridge?.getPlugin("FsWatcher")?.instance as? FsWatcher
+        val seq = nativeSearchSeq.incrementAndGet()
+        nativeSearchExecutor.execute {
+            val rows = mutableListOf<SearchResult>()
+            val count = titleMatcher.search(query, NATIVE_TITLE_LIMIT, titleMatches)
+            for (i in 0 until count) {
+                val entry = titleMatches[i]
+                val title = titleMatcher.title(entry) ?: continue
+                val matched = titleMatcher.text(entry)
+                // shows which alias matched; without a uuid the page is opened by name
+                rows.add(SearchResult(titleMatcher.id(entry) ?: title, title, matched.takeIf { it != title }))
+            }
+            // null while no watched graph is indexed
+            val hits = watcher?.searchIndex(query, NATIVE_SEARCH_LIMIT)
+            if (hits == null && titleMatcher.size() == 0) {
+                // nothing native to offer, the results come from JS only
+                return@execute
+            }
+            hits?.forEach { hit ->
+                // blocks without an id:: open their page, named as graph-parser names it (see PageNames);
+                // redirect-to-page! takes a name as well
+                rows.add(SearchResult(hit.uuid ?: hit.page ?: "", hit.title, hit.page))
+            }
+            activity?.runOnUiThread {
+                if (seq != nativeSearchSeq.get()) return@runOnUiThread
+                val container = resultsContainer ?: return@runOnUiThread
+                container.removeAllViews()
+                rows.forEach { row -> container.addView(makeResultRow(row)) }
+            }
+        }
+    }
+
+    override fun handleOnDestroy() {
+        nativeSearchExecutor.shutdownNow()
+        super.handleOnDestroy()
+    }
+
     private fun clearSearchUi() {
         searchInput?.setText("")
         resultsContainer?.removeAllViews()
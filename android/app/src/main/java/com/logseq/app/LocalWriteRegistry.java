@@ -0,0 +1,86 @@
+package com.logseq.app;
+
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+// Writes the app made itself, so the watcher can recognise them when they come back as changes and
+// drop them before the file is read. An entry is consumed by the first event it matches and
+// forgotten after a while, a write that never shows up must not hide a later external edit.
+final class LocalWriteRegistry {
+    private static final long TTL_MS = 30 * 1000;
+
+    private static class Expected {
+        final long size;
+        // -1 when unknown
+        final long mtime;
+        // 0 when unknown
+        final long hash;
+        final long expiresAt;
+
+        Expected(long size, long mtime, long hash, long expiresAt) {
+            this.size = size;
+            this.mtime = mtime;
+            this.hash = hash;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final Map<String, Expected> mWrites = new HashMap<>();
+
+    // path is canonical, mtime in seconds as in event stats
+    public synchronized void register(String path, long size, long mtime, long hash) {
+        long now = System.currentTimeMillis();
+        if (mWrites.size() > 1000) {
+            this.expire(now);
+        }
+        mWrites.put(path, new Expected(size, mtime, hash, now + TTL_MS));
+    }
+
+    // Size must match, then mtime and/or hash as far as they were registered. Comparing the hash
+    // fills in metadata.hash, reading the file once.
+    public boolean isEcho(String path, FsWatcher.SimpleFileMetadata metadata) {
+        Expected expected;
+        synchronized (this) {
+            expected = mWrites.get(path);
+            if (expected == null) {
+                return false;
+            }
+            if (expected.expiresAt < System.currentTimeMillis()) {
+                mWrites.remove(path);
+                return false;
+            }
+        }
+        if (expected.size != metadata.size || (expected.mtime >= 0 && expected.mtime != metadata.mtime)) {
+            return false;
+        }
+        if (expected.hash != 0) {
+            if (metadata.hash == 0) {
+                metadata.hash = FsWatcher.fingerprint(path, metadata);
+            }
+            if (metadata.hash != expected.hash) {
+                return false;
+            }
+        }
+
+        synchronized (this) {
+            // unless written again meanwhile
+            if (mWrites.get(path) == expected) {
+                mWrites.remove(path);
+            }
+        }
+        Log.d("FsWatcher", "own write " + path);
+        return true;
+    }
+
+    private void expire(long now) {
+        Iterator<Expected> it = mWrites.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().expiresAt < now) {
+                it.remove();
+            }
+        }
+    }
+}
@@ -41,6 +41,8 @@ public class MainActivity extends BridgeActivity {
         registerPlugin(NativeSelectionActionBarPlugin.class);
         registerPlugin(LiquidTabsPlugin.class);
         registerPlugin(Utils.class);
+        registerPlugin(BulkFs.class);
+        registerPlugin(FsWatcher.class);
 
         super.onCreate(savedInstanceState);
         // @capacitor/app installs its own OnBackPressedCallback during plugin load (inside
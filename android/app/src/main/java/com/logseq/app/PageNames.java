@@ -0,0 +1,356 @@
+package com.logseq.app;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Page name of a file of a graph, as graph-parser gives it (see extract/get-page-name and
+// block/convert-page-if-journal): the title:: property, or the file name parsed in the graph's
+// :file/name-format; a name that reads as a date is then a journal, titled in the graph's
+// :journal/page-title-format. Both settings come from logseq/config.edn, load() again after it changed.
+//
+// Journal title formats are cljs-time patterns; the ones Logseq offers are supported: yyyy, MM, M,
+// dd, d, do (day with its English ordinal suffix), MMM, MMMM, E, EEE and EEEE, anything else is
+// literal.
+final class PageNames {
+    static final String CONFIG_PATH = "logseq/config.edn";
+    static final String DEFAULT_JOURNAL_TITLE_FORMAT = "MMM do, yyyy";
+
+    private static final String[] MONTHS = {"January", "February", "March", "April", "May", "June", "July",
+        "August", "September", "October", "November", "December"};
+    private static final String[] WEEKDAYS = {"Sunday", "Monday", "Tuesday", "Wednesday", "Thursday", "Friday",
+        "Saturday"};
+    private static final Pattern TOKEN = Pattern.compile("yyyy|MMMM|MMM|MM|M|dd|do|d|EEEE|EEE|E");
+    private static final Pattern URL_ENCODED = Pattern.compile("(%[0-9A-Fa-f]{2})+");
+    private static final Pattern NAME_FORMAT = Pattern.compile(":file/name-format\\s+:([\\w-]+)");
+    private static final Pattern TITLE_FORMAT = Pattern.compile(":journal/page-title-format\\s+\"((?:[^\"\\\\]|\\\\.)*)\"");
+    private static final Pattern DATE_FORMATTER = Pattern.compile(":date-formatter\\s+\"((?:[^\"\\\\]|\\\\.)*)\"");
+
+    // a cljs-time pattern, split into its tokens and literals
+    private static final class DateFormat {
+        final List<String> parts = new ArrayList<>();
+        final Pattern parser;
+
+        DateFormat(String pattern) {
+            StringBuilder regex = new StringBuilder();
+            Matcher m = TOKEN.matcher(pattern);
+            int last = 0;
+            while (m.find()) {
+                if (m.start() > last) {
+                    this.literal(pattern.substring(last, m.start()), regex);
+                }
+                parts.add(m.group());
+                switch (m.group()) {
+                    case "yyyy":
+                        regex.append("(\\d{4})");
+                        break;
+                    case "MMMM":
+                    case "MMM":
+                        regex.append("([a-z]+)");
+                        break;
+                    case "do":
+                        regex.append("(\\d{1,2})(?:st|nd|rd|th)");
+                        break;
+                    case "EEEE":
+                    case "EEE":
+                    case "E":
+                        regex.append("[a-z]+");
+                        break;
+                    default:
+                        regex.append("(\\d{1,2})");
+                }
+                last = m.end();
+            }
+            if (last < pattern.length()) {
+                this.literal(pattern.substring(last), regex);
+            }
+            parser = Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+        }
+
+        private void literal(String text, StringBuilder regex) {
+            // marked apart from the tokens, which are all letters
+            parts.add("'" + text);
+            regex.append(Pattern.quote(text));
+        }
+
+        // the date title stands for, null when it isn't one
+        Calendar parse(String title) {
+            Matcher m = parser.matcher(title);
+            if (!m.matches()) {
+                return null;
+            }
+            int year = -1;
+            int month = -1;
+            int day = -1;
+            int group = 1;
+            for (String part : parts) {
+                switch (part) {
+                    case "yyyy":
+                        year = Integer.parseInt(m.group(group++));
+                        break;
+                    case "MMMM":
+                    case "MMM":
+                        month = monthOf(m.group(group++), part.length() == 3);
+                        break;
+                    case "MM":
+                    case "M":
+                        month = Integer.parseInt(m.group(group++)) - 1;
+                        break;
+                    case "dd":
+                    case "do":
+                    case "d":
+                        day = Integer.parseInt(m.group(group++));
+                        break;
+                    default:
+                        break;
+                }
+            }
+            if (year < 0 || month < 0 || day < 0) {
+                return null;
+            }
+            Calendar date = new GregorianCalendar(year, month, day);
+            date.setLenient(false);
+            try {
+                // validates, June 31 throws
+                date.getTimeInMillis();
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+            return date;
+        }
+
+        String format(Calendar date) {
+            StringBuilder out = new StringBuilder();
+            int day = date.get(Calendar.DAY_OF_MONTH);
+            int month = date.get(Calendar.MONTH);
+            for (String part : parts) {
+                switch (part) {
+                    case "yyyy":
+                        out.append(String.format(Locale.ROOT, "%04d", date.get(Calendar.YEAR)));
+                        break;
+                    case "MMMM":
+                        out.append(MONTHS[month]);
+                        break;
+                    case "MMM":
+                        out.append(MONTHS[month], 0, 3);
+                        break;
+                    case "MM":
+                        out.append(String.format(Locale.ROOT, "%02d", month + 1));
+                        break;
+                    case "M":
+                        out.append(month + 1);
+                        break;
+                    case "dd":
+                        out.append(String.format(Locale.ROOT, "%02d", day));
+                        break;
+                    case "do":
+                        out.append(day).append(ordinalSuffix(day));
+                        break;
+                    case "d":
+                        out.append(day);
+                        break;
+                    case "EEEE":
+                        out.append(WEEKDAYS[date.get(Calendar.DAY_OF_WEEK) - 1]);
+                        break;
+                    case "EEE":
+                    case "E":
+                        out.append(WEEKDAYS[date.get(Calendar.DAY_OF_WEEK) - 1], 0, 3);
+                        break;
+                    default:
+                        out.append(part, 1, part.length());
+                }
+            }
+            return out.toString();
+        }
+    }
+
+    private final boolean mTripleLowbar;
+    private final DateFormat mTitleFormat;
+    // tried in order on a name, as date-time-util/safe-journal-title-formatters
+    private final List<DateFormat> mJournalFormats = new ArrayList<>();
+
+    PageNames(String fileNameFormat, String journalTitleFormat) {
+        mTripleLowbar = "triple-lowbar".equals(fileNameFormat);
+        String titleFormat = journalTitleFormat == null || journalTitleFormat.trim().isEmpty()
+            ? DEFAULT_JOURNAL_TITLE_FORMAT : journalTitleFormat;
+        mTitleFormat = new DateFormat(titleFormat);
+        mJournalFormats.add(mTitleFormat);
+        for (String format : new String[] {DEFAULT_JOURNAL_TITLE_FORMAT, "yyyy-MM-dd", "yyyy_MM_dd"}) {
+            if (!format.equals(titleFormat)) {
+                mJournalFormats.add(new DateFormat(format));
+            }
+        }
+    }
+
+    // the settings of the graph at root, the defaults when it has no config
+    static PageNames load(String root) {
+        File config = new File(root, CONFIG_PATH);
+        if (!config.isFile()) {
+            return new PageNames(null, null);
+        }
+        String edn;
+        try {
+            edn = withoutComments(FsWatcher.getFileContents(config));
+        } catch (IOException e) {
+            Log.w("FsWatcher", "cannot read " + config, e);
+            return new PageNames(null, null);
+        }
+        Matcher nameFormat = NAME_FORMAT.matcher(edn);
+        Matcher titleFormat = TITLE_FORMAT.matcher(edn);
+        Matcher dateFormatter = DATE_FORMATTER.matcher(edn);
+        return new PageNames(nameFormat.find() ? nameFormat.group(1) : null,
+            titleFormat.find() ? titleFormat.group(1) : dateFormatter.find() ? dateFormatter.group(1) : null);
+    }
+
+    // relpath is relative to the graph root, title the page's title:: or null
+    public String pageName(String relpath, String title) {
+        if (relpath.startsWith("pages/contents.")) {
+            return "Contents";
+        }
+        String name = title;
+        if (name == null) {
+            String fileName = relpath.substring(relpath.lastIndexOf('/') + 1);
+            int dot = fileName.lastIndexOf('.');
+            String body = dot > 0 ? fileName.substring(0, dot) : fileName;
+            name = mTripleLowbar ? tripleLowbarTitle(body) : legacyTitle(body);
+        }
+        String trimmed = name.trim();
+        for (DateFormat format : mJournalFormats) {
+            Calendar date = format.parse(trimmed);
+            if (date != null) {
+                return mTitleFormat.format(date);
+            }
+        }
+        return name;
+    }
+
+    // "___" for "/", URL-encoded characters decoded, empty namespaces dropped
+    static String tripleLowbarTitle(String body) {
+        String title = body.replace("___", "/");
+        Matcher m = URL_ENCODED.matcher(title);
+        StringBuffer decoded = new StringBuffer();
+        while (m.find()) {
+            String run = decode(m.group());
+            m.appendReplacement(decoded, Matcher.quoteReplacement(run == null ? m.group() : run));
+        }
+        m.appendTail(decoded);
+        StringBuilder out = new StringBuilder();
+        for (String part : decoded.toString().split("/")) {
+            if (!part.isEmpty()) {
+                if (out.length() > 0) {
+                    out.append('/');
+                }
+                out.append(part);
+            }
+        }
+        return out.toString();
+    }
+
+    // the format of graphs without :file/name-format: "." for "/", then URL-decoded as a whole
+    static String legacyTitle(String body) {
+        String title = body.replace(".", "/");
+        String decoded = title.indexOf('%') < 0 ? title : decode(title);
+        return decoded == null ? title : decoded;
+    }
+
+    // decodeURIComponent: %XX sequences are UTF-8 bytes, null when malformed
+    private static String decode(String s) {
+        StringBuilder out = new StringBuilder(s.length());
+        ByteBuffer bytes = ByteBuffer.allocate(s.length());
+        int i = 0;
+        while (i < s.length()) {
+            if (s.charAt(i) != '%') {
+                out.append(s.charAt(i++));
+                continue;
+            }
+            bytes.clear();
+            while (i < s.length() && s.charAt(i) == '%') {
+                if (i + 2 >= s.length()) {
+                    return null;
+                }
+                int hi = Character.digit(s.charAt(i + 1), 16);
+                int lo = Character.digit(s.charAt(i + 2), 16);
+                if (hi < 0 || lo < 0) {
+                    return null;
+                }
+                bytes.put((byte) (hi << 4 | lo));
+                i += 3;
+            }
+            bytes.flip();
+            try {
+                out.append(StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(bytes));
+            } catch (CharacterCodingException e) {
+                return null;
+            }
+        }
+        return out.toString();
+    }
+
+    private static int monthOf(String name, boolean abbreviated) {
+        for (int i = 0; i < MONTHS.length; i++) {
+            String month = abbreviated ? MONTHS[i].substring(0, 3) : MONTHS[i];
+            if (month.equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String ordinalSuffix(int day) {
+        if (day >= 11 && day <= 13) {
+            return "th";
+        }
+        switch (day % 10) {
+            case 1:
+                return "st";
+            case 2:
+                return "nd";
+            case 3:
+                return "rd";
+            default:
+                return "th";
+        }
+    }
+
+    // EDN without its ; comments, strings kept whole
+    private static String withoutComments(String edn) {
+        StringBuilder out = new StringBuilder(edn.length());
+        boolean inString = false;
+        for (int i = 0; i < edn.length(); i++) {
+            char c = edn.charAt(i);
+            if (inString) {
+                out.append(c);
+                if (c == '\\' && i + 1 < edn.length()) {
+                    out.append(edn.charAt(++i));
+                } else if (c == '"') {
+                    inString = false;
+                }
+            } else if (c == ';') {
+                while (i + 1 < edn.length() && edn.charAt(i + 1) != '\n') {
+                    i++;
+                }
+            } else {
+                if (c == '"') {
+                    inString = true;
+                }
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,68 @@
+package com.logseq.app;
+
+import android.system.OsConstants;
+import android.system.StructStat;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Full tree walk for PollingFsWatcher with one fork/join task per directory, so big graphs are
+// listed and stat'ed on several cores. Same ignore rules as the sequential walk.
+// The pool is FsWatcher's and shared by every root, the walker never shuts it down.
+final class ParallelTreeWalker {
+    private final ForkJoinPool mPool;
+    private final IgnoreRules mRules;
+
+    ParallelTreeWalker(ForkJoinPool pool, IgnoreRules rules) {
+        mPool = pool;
+        mRules = rules;
+    }
+
+    public Map<String, FsWatcher.SimpleFileMetadata> walk(String root) {
+        ConcurrentHashMap<String, FsWatcher.SimpleFileMetadata> metaDb = new ConcurrentHashMap<>();
+        mPool.invoke(new DirTask(root, metaDb, mRules));
+        return metaDb;
+    }
+
+    private static class DirTask extends RecursiveAction {
+        private final String mDir;
+        private final Map<String, FsWatcher.SimpleFileMetadata> mMetaDb;
+        private final IgnoreRules mRules;
+
+        DirTask(String dir, Map<String, FsWatcher.SimpleFileMetadata> metaDb, IgnoreRules rules) {
+            mDir = dir;
+            mMetaDb = metaDb;
+            mRules = rules;
+        }
+
+        @Override
+        protected void compute() {
+            String[] names = FsWatcher.listDir(mDir);
+            if (names == null) {
+                return;
+            }
+
+            List<DirTask> subtasks = new ArrayList<>();
+            for (String name : names) {
+                String path = mDir + "/" + name;
+                StructStat stat = FsWatcher.statEntry(path);
+                if (stat == null) {
+                    continue;
+                }
+                if (OsConstants.S_ISDIR(stat.st_mode)) {
+                    if (!mRules.isIgnored(path, true)) {
+                        subtasks.add(new DirTask(path, mMetaDb, mRules));
+                    }
+                } else if (OsConstants.S_ISREG(stat.st_mode) && !mRules.isIgnored(path, false)) {
+                    mMetaDb.put(path, new FsWatcher.SimpleFileMetadata(stat));
+                }
+            }
+            invokeAll(subtasks);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.logseq.app;
+
+import android.system.OsConstants;
+import android.system.StructStat;
+import android.util.Log;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Stack;
+
+// Walks a graph once and hands the whole tree over in path order, as chunks capped by file count
+// and inlined bytes, so opening a graph for the first time takes a few bulk transfers instead of
+// one bridge call per file. Runs on the caller's thread, FsWatcher puts it on a background executor.
+final class SnapshotStreamer {
+    interface Sink {
+        void onChunk(JSObject chunk);
+
+        void onProgress(JSObject progress);
+    }
+
+    private static final class Entry implements Comparable<Entry> {
+        final String path;
+        final StructStat stat;
+
+        Entry(String path, StructStat stat) {
+            this.path = path;
+            this.stat = stat;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            return path.compareTo(other.path);
+        }
+    }
+
+    private final String mRoot;
+    private final IgnoreRules mRules;
+    private final boolean mIncludeContent;
+    private final int mChunkMaxFiles;
+    private final long mChunkMaxBytes;
+    private final Sink mSink;
+
+    SnapshotStreamer(String root, IgnoreRules rules, boolean includeContent, int chunkMaxFiles, long chunkMaxBytes, Sink sink) {
+        mRoot = root;
+        mRules = rules;
+        mIncludeContent = includeContent;
+        mChunkMaxFiles = Math.max(1, chunkMaxFiles);
+        mChunkMaxBytes = chunkMaxBytes;
+        mSink = sink;
+    }
+
+    // returns a summary, {files, bytes, chunks, cancelled}; an interrupt stops it early
+    public JSObject run() {
+        List<Entry> entries = this.walk();
+        Collections.sort(entries);
+
+        int prefixLength = mRoot.length() + 1;
+        int total = entries.size();
+        int done = 0;
+        int chunks = 0;
+        long totalBytes = 0;
+
+        JSArray files = new JSArray();
+        long bytes = 0;
+        for (int i = 0; i < total && !Thread.currentThread().isInterrupted(); i++) {
+            String path = entries.get(i).path;
+            StructStat stat = entries.get(i).stat;
+
+            JSObject obj = new JSObject();
+            obj.put("path", Normalizer.normalize(path.substring(prefixLength), Normalizer.Form.NFC));
+            JSObject s = new JSObject();
+            s.put("mtime", stat.st_mtime);
+            s.put("ctime", stat.st_ctime);
+            s.put("size", stat.st_size);
+            obj.put("stat", s);
+            if (mIncludeContent && FsWatcher.PARSEABLE_FILE.matcher(path.substring(path.lastIndexOf('/') + 1)).matches()) {
+                try {
+                    String content = FsWatcher.getFileContents(new File(path));
+                    obj.put("content", content);
+                    bytes += content.length();
+                } catch (IOException e) {
+                    Log.w("FsWatcher", "snapshot cannot read " + path, e);
+                }
+            }
+            files.put(obj);
+            done++;
+
+            if (files.length() >= mChunkMaxFiles || bytes >= mChunkMaxBytes) {
+                this.emit(files, chunks++, false, done, total);
+                totalBytes += bytes;
+                files = new JSArray();
+                bytes = 0;
+            }
+        }
+        totalBytes += bytes;
+        this.emit(files, chunks++, true, done, total);
+
+        JSObject ret = new JSObject();
+        ret.put("files", done);
+        ret.put("bytes", totalBytes);
+        ret.put("chunks", chunks);
+        ret.put("cancelled", Thread.currentThread().isInterrupted());
+        return ret;
+    }
+
+    private void emit(JSArray files, int index, boolean last, int done, int total) {
+        JSObject chunk = new JSObject();
+        chunk.put("index", index);
+        chunk.put("files", files);
+        chunk.put("last", last);
+        mSink.onChunk(chunk);
+
+        JSObject progress = new JSObject();
+        progress.put("done", done);
+        progress.put("total", total);
+        mSink.onProgress(progress);
+    }
+
+    private List<Entry> walk() {
+        List<Entry> entries = new ArrayList<>();
+        Stack<String> dirs = new Stack<>();
+        dirs.push(mRoot);
+        while (!dirs.isEmpty() && !Thread.currentThread().isInterrupted()) {
+            String dir = dirs.pop();
+            String[] names = FsWatcher.listDir(dir);
+            if (names == null) {
+                continue;
+            }
+            for (String name : names) {
+                String path = dir + "/" + name;
+                StructStat stat = FsWatcher.statEntry(path);
+                if (stat == null) {
+                    continue;
+                }
+                if (OsConstants.S_ISDIR(stat.st_mode)) {
+                    if (!mRules.isIgnored(path, true)) {
+                        dirs.push(path);
+                    }
+                } else if (OsConstants.S_ISREG(stat.st_mode) && !mRules.isIgnored(path, false)) {
+                    entries.add(new Entry(path, stat));
+                }
+            }
+        }
+        return entries;
+    }
+}
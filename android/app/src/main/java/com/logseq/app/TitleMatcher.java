@@ -0,0 +1,415 @@
+package com.logseq.app;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Page titles and aliases for quick-switch in the native search tab, fuzzy-matched as the user
+// types. Titles are folded once when seeded (lower case, diacritics stripped) and packed into one
+// char array, a query walks them without allocating: its folded form, the per-page best scores
+// and the top-k heap all live in reused arrays.
+//
+// A title matches when it holds the query's characters in order. Consecutive characters, word
+// starts, a match at the very start and an exact match score higher, gaps and long titles lower.
+// Seeded and updated from JS through LiquidTabsPlugin; thread-safe, queries hold the lock.
+final class TitleMatcher {
+    private static final int SCORE_MATCH = 16;
+    private static final int BONUS_CONSECUTIVE = 12;
+    private static final int BONUS_WORD_START = 8;
+    private static final int BONUS_PREFIX = 32;
+    private static final int BONUS_EXACT = 64;
+
+    // folded form of U+0000 - U+024F, Latin with its accented letters
+    private static final char[] FOLD = new char[0x250];
+
+    static {
+        for (char c = 0; c < FOLD.length; c++) {
+            String decomposed = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD);
+            char base = decomposed.length() > 0 && Character.isLetter(decomposed.charAt(0)) ? decomposed.charAt(0) : c;
+            FOLD[c] = Character.toLowerCase(base);
+        }
+    }
+
+    // per entry, a title or an alias of a page
+    private char[] mChars = new char[4096];
+    private int mCharCount = 0;
+    private int[] mStart = new int[256];
+    private int[] mLength = new int[256];
+    private int[] mPage = new int[256];
+    // which characters the entry holds, see bit(), rejects most entries without looking at them
+    private long[] mMask = new long[256];
+    private String[] mText = new String[256];
+    private int mEntryCount = 0;
+    private int mDeadEntries = 0;
+
+    // per page; id null once removed
+    private String[] mIds = new String[128];
+    private String[] mTitles = new String[128];
+    // how many entries the page has, removing it kills that many
+    private int[] mPageEntries = new int[128];
+    private int mPageCount = 0;
+    private final Map<String, Integer> mPageIndex = new HashMap<>();
+
+    // query scratch, grown but never shrunk
+    private char[] mQuery = new char[32];
+    private int[] mBestScore = new int[128];
+    private int[] mBestEntry = new int[128];
+    private int[] mBestEpoch = new int[128];
+    private int[] mTouched = new int[128];
+    private int[] mHeapScore = new int[16];
+    private int[] mHeapEntry = new int[16];
+    private int mEpoch = 0;
+
+    public synchronized int size() {
+        return mPageIndex.size();
+    }
+
+    public synchronized void clear() {
+        mCharCount = 0;
+        mEntryCount = 0;
+        mDeadEntries = 0;
+        Arrays.fill(mIds, 0, mPageCount, null);
+        Arrays.fill(mTitles, 0, mPageCount, null);
+        Arrays.fill(mText, 0, mText.length, null);
+        mPageCount = 0;
+        mPageIndex.clear();
+    }
+
+    // adds the page or replaces its title and aliases
+    public synchronized void put(String id, String title, String[] aliases) {
+        this.removeLocked(id);
+        if (mPageCount == mIds.length) {
+            mIds = Arrays.copyOf(mIds, mPageCount * 2);
+            mTitles = Arrays.copyOf(mTitles, mPageCount * 2);
+            mPageEntries = Arrays.copyOf(mPageEntries, mPageCount * 2);
+        }
+        int page = mPageCount++;
+        mIds[page] = id;
+        mTitles[page] = title;
+        mPageEntries[page] = 0;
+        mPageIndex.put(id, page);
+        this.addEntry(page, title);
+        if (aliases != null) {
+            for (String alias : aliases) {
+                if (alias != null && !alias.isEmpty() && !alias.equalsIgnoreCase(title)) {
+                    this.addEntry(page, alias);
+                }
+            }
+        }
+        // a re-put page leaves its old entries behind as well
+        this.compactIfMostlyDead();
+    }
+
+    public synchronized void remove(String id) {
+        this.removeLocked(id);
+        this.compactIfMostlyDead();
+    }
+
+    public synchronized String id(int entry) {
+        return mIds[mPage[entry]];
+    }
+
+    public synchronized String title(int entry) {
+        return mTitles[mPage[entry]];
+    }
+
+    // the title or alias the entry holds
+    public synchronized String text(int entry) {
+        return mText[entry];
+    }
+
+    // Best entries for query into out, one per page, best first; returns how many. Entries are
+    // valid until the next put/remove.
+    public synchronized int search(CharSequence query, int k, int[] out) {
+        int m = this.foldQuery(query);
+        k = Math.min(k, out.length);
+        if (m == 0 || k <= 0) {
+            return 0;
+        }
+        if (mBestScore.length < mPageCount) {
+            int size = Math.max(mPageCount, mBestScore.length * 2);
+            mBestScore = new int[size];
+            mBestEntry = new int[size];
+            mBestEpoch = new int[size];
+            mTouched = new int[size];
+        }
+        if (mHeapScore.length < k) {
+            mHeapScore = new int[k];
+            mHeapEntry = new int[k];
+        }
+        if (++mEpoch == 0) {
+            Arrays.fill(mBestEpoch, 0);
+            mEpoch = 1;
+        }
+
+        long mask = 0;
+        for (int i = 0; i < m; i++) {
+            mask |= bit(mQuery[i]);
+        }
+
+        // best entry per page, a title and its aliases count once
+        int touched = 0;
+        for (int e = 0; e < mEntryCount; e++) {
+            if ((mMask[e] & mask) != mask) {
+                continue;
+            }
+            int page = mPage[e];
+            if (mIds[page] == null) {
+                continue;
+            }
+            int score = this.score(e, m);
+            if (score < 0) {
+                continue;
+            }
+            if (mBestEpoch[page] != mEpoch) {
+                mBestEpoch[page] = mEpoch;
+                mBestScore[page] = score;
+                mBestEntry[page] = e;
+                mTouched[touched++] = page;
+            } else if (score > mBestScore[page]) {
+                mBestScore[page] = score;
+                mBestEntry[page] = e;
+            }
+        }
+
+        // min-heap of the k best, its root is the one to beat
+        int size = 0;
+        for (int t = 0; t < touched; t++) {
+            int page = mTouched[t];
+            int score = mBestScore[page];
+            if (size < k) {
+                mHeapScore[size] = score;
+                mHeapEntry[size] = mBestEntry[page];
+                this.siftUp(size++);
+            } else if (score > mHeapScore[0]) {
+                mHeapScore[0] = score;
+                mHeapEntry[0] = mBestEntry[page];
+                this.siftDown(0, size);
+            }
+        }
+        int count = size;
+        while (size > 0) {
+            out[--size] = mHeapEntry[0];
+            mHeapScore[0] = mHeapScore[size];
+            mHeapEntry[0] = mHeapEntry[size];
+            this.siftDown(0, size);
+        }
+        return count;
+    }
+
+    // -1 when the entry doesn't hold the query's first m chars in order
+    private int score(int entry, int m) {
+        char[] chars = mChars;
+        int from = mStart[entry];
+        int n = mLength[entry];
+        if (n < m) {
+            return -1;
+        }
+        int to = from + n;
+
+        // find the end of the first match, then walk back to its latest start: the shortest window
+        int j = 0;
+        int end = -1;
+        for (int i = from; i < to; i++) {
+            if (chars[i] == mQuery[j] && ++j == m) {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) {
+            return -1;
+        }
+        j = m - 1;
+        int start = end;
+        for (int i = end; i >= from; i--) {
+            if (chars[i] == mQuery[j] && --j < 0) {
+                start = i;
+                break;
+            }
+        }
+
+        int score = 0;
+        int prev = -2;
+        j = 0;
+        for (int i = start; i <= end && j < m; i++) {
+            if (chars[i] != mQuery[j]) {
+                // a gap
+                score -= 1;
+                continue;
+            }
+            score += SCORE_MATCH;
+            if (i == prev + 1) {
+                score += BONUS_CONSECUTIVE;
+            }
+            if (i == from || !isWordChar(chars[i - 1])) {
+                score += BONUS_WORD_START;
+            }
+            prev = i;
+            j++;
+        }
+        if (start == from) {
+            score += BONUS_PREFIX;
+        }
+        if (n == m) {
+            score += BONUS_EXACT;
+        }
+        // among equals, shorter titles first
+        return Math.max(0, score - (n - m) / 4);
+    }
+
+    private static boolean isWordChar(char c) {
+        if (c < 0x80) {
+            return (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9');
+        }
+        return Character.isLetterOrDigit(c);
+    }
+
+    // a-z and 0-9 have a bit each, everything else shares the remaining 28
+    private static long bit(char c) {
+        if (c >= 'a' && c <= 'z') {
+            return 1L << (c - 'a');
+        }
+        if (c >= '0' && c <= '9') {
+            return 1L << (26 + c - '0');
+        }
+        return c == ' ' ? 0 : 1L << (36 + c % 28);
+    }
+
+    private int foldQuery(CharSequence query) {
+        int length = query.length();
+        if (mQuery.length < length) {
+            mQuery = new char[Math.max(length, mQuery.length * 2)];
+        }
+        int m = 0;
+        for (int i = 0; i < length; i++) {
+            char c = fold(query.charAt(i));
+            // spaces in the query are typing noise for a fuzzy match, except between words
+            if (c != ' ' || (m > 0 && mQuery[m - 1] != ' ')) {
+                mQuery[m++] = c;
+            }
+        }
+        while (m > 0 && mQuery[m - 1] == ' ') {
+            m--;
+        }
+        return m;
+    }
+
+    private static char fold(char c) {
+        if (c < FOLD.length) {
+            return FOLD[c];
+        }
+        return Character.isWhitespace(c) ? ' ' : Character.toLowerCase(c);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!this.worse(i, parent)) {
+                break;
+            }
+            this.swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i, int size) {
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= size) {
+                break;
+            }
+            int child = left + 1 < size && this.worse(left + 1, left) ? left + 1 : left;
+            if (!this.worse(child, i)) {
+                break;
+            }
+            this.swap(i, child);
+            i = child;
+        }
+    }
+
+    // lower score, or the later entry among equals
+    private boolean worse(int a, int b) {
+        return mHeapScore[a] != mHeapScore[b] ? mHeapScore[a] < mHeapScore[b] : mHeapEntry[a] > mHeapEntry[b];
+    }
+
+    private void swap(int a, int b) {
+        int score = mHeapScore[a];
+        mHeapScore[a] = mHeapScore[b];
+        mHeapScore[b] = score;
+        int entry = mHeapEntry[a];
+        mHeapEntry[a] = mHeapEntry[b];
+        mHeapEntry[b] = entry;
+    }
+
+    private void removeLocked(String id) {
+        Integer page = mPageIndex.remove(id);
+        if (page == null) {
+            return;
+        }
+        mIds[page] = null;
+        mTitles[page] = null;
+        mDeadEntries += mPageEntries[page];
+    }
+
+    // removed pages leave their entries behind until they're most of them
+    private void compactIfMostlyDead() {
+        if (mDeadEntries > 1024 && mDeadEntries * 2 > mEntryCount) {
+            this.compact();
+        }
+    }
+
+    private void addEntry(int page, String text) {
+        int length = text.length();
+        if (mCharCount + length > mChars.length) {
+            mChars = Arrays.copyOf(mChars, Math.max(mCharCount + length, mChars.length * 2));
+        }
+        if (mEntryCount == mStart.length) {
+            int size = mEntryCount * 2;
+            mStart = Arrays.copyOf(mStart, size);
+            mLength = Arrays.copyOf(mLength, size);
+            mPage = Arrays.copyOf(mPage, size);
+            mMask = Arrays.copyOf(mMask, size);
+            mText = Arrays.copyOf(mText, size);
+        }
+        int e = mEntryCount++;
+        mStart[e] = mCharCount;
+        mLength[e] = length;
+        mPage[e] = page;
+        mPageEntries[page]++;
+        mText[e] = text;
+        long mask = 0;
+        for (int i = 0; i < length; i++) {
+            char c = fold(text.charAt(i));
+            mChars[mCharCount++] = c;
+            mask |= bit(c);
+        }
+        mMask[e] = mask;
+    }
+
+    // drops removed pages and their entries, renumbering the rest
+    private void compact() {
+        String[] ids = Arrays.copyOf(mIds, mPageCount);
+        String[] titles = Arrays.copyOf(mTitles, mPageCount);
+        String[] texts = Arrays.copyOf(mText, mEntryCount);
+        int[] pages = Arrays.copyOf(mPage, mEntryCount);
+        int entries = mEntryCount;
+
+        this.clear();
+        int[] renumbered = new int[ids.length];
+        for (int p = 0; p < ids.length; p++) {
+            if (ids[p] != null) {
+                renumbered[p] = mPageCount;
+                mIds[mPageCount] = ids[p];
+                mTitles[mPageCount] = titles[p];
+                mPageEntries[mPageCount] = 0;
+                mPageIndex.put(ids[p], mPageCount++);
+            }
+        }
+        for (int e = 0; e < entries; e++) {
+            if (ids[pages[e]] != null) {
+                this.addEntry(renumbered[pages[e]], texts[e]);
+            }
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.logseq.app;
+
+import android.os.FileObserver;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Collects watcher events over a short window and hands them over in one go, keeping only the
+// net effect per path, e.g. create+modify is still an add and add+unlink cancels out.
+// Renames (FileObserver.MOVED_TO) are keyed by their new path and remember where they came from.
+final class WatcherEventBatcher {
+    interface Sink {
+        // called on the scheduler thread with everything pending, events in first-seen order
+        void onBatch(List<Pending> events);
+    }
+
+    static final class Pending {
+        public int event;
+        public final String path;
+        public FsWatcher.SimpleFileMetadata metadata;
+        // set for renames only
+        public String oldPath;
+        // journal generation of the latest change merged in
+        public long generation;
+        // lowest journal generation among the changes merged in, the old path's unlink for renames;
+        // the event must be delivered before a watermark may pass it, see EventDispatcher
+        public long firstGeneration;
+        // System.nanoTime() when the first change merged in was seen, for dispatch latency
+        public final long detectedAt = System.nanoTime();
+
+        Pending(int event, String path, FsWatcher.SimpleFileMetadata metadata, long generation) {
+            this.event = event;
+            this.path = path;
+            this.metadata = metadata;
+            this.generation = generation;
+            this.firstGeneration = generation;
+        }
+    }
+
+    private final long mInterval;
+    private final int mMaxSize;
+    private final Sink mSink;
+    // shared with the other watched roots, see FsWatcher.mScheduler
+    private final ScheduledExecutorService mExecutor;
+    private LinkedHashMap<String, Pending> mPending = new LinkedHashMap<>();
+    private boolean mFlushScheduled = false;
+    // a full batch is already waiting for the executor, further adds join it
+    private boolean mImmediateFlushQueued = false;
+    private boolean mClosed = false;
+
+    WatcherEventBatcher(ScheduledExecutorService executor, long interval, int maxSize, Sink sink) {
+        mExecutor = executor;
+        mInterval = interval;
+        mMaxSize = maxSize;
+        mSink = sink;
+    }
+
+    public synchronized void add(int event, String path, FsWatcher.SimpleFileMetadata metadata, long generation) {
+        Pending prev = mPending.get(path);
+        if (prev != null && prev.event == FileObserver.MOVED_TO) {
+            // a renamed file changed or went away before the listener heard of the rename
+            mPending.remove(path);
+            put(FileObserver.DELETE, prev.oldPath, null, prev.firstGeneration, prev.firstGeneration);
+            if (event != FileObserver.DELETE) {
+                put(FileObserver.CREATE, path, metadata, generation, generation);
+            }
+        } else {
+            put(event, path, metadata, generation, generation);
+        }
+
+        scheduleFlush();
+    }
+
+    // unlinked is the journal generation of the old path's unlink, generation the new path's add
+    public synchronized void addRename(String oldPath, String path, FsWatcher.SimpleFileMetadata metadata, long unlinked, long generation) {
+        Pending prev = mPending.remove(oldPath);
+        if (prev == null) {
+            Pending renamed = new Pending(FileObserver.MOVED_TO, path, metadata, generation);
+            renamed.oldPath = oldPath;
+            renamed.firstGeneration = unlinked;
+            mPending.remove(path);
+            mPending.put(path, renamed);
+        } else if (prev.event == FileObserver.MOVED_TO) {
+            // renamed twice, a -> b -> c is a -> c
+            Pending renamed = new Pending(FileObserver.MOVED_TO, path, metadata, generation);
+            renamed.oldPath = prev.oldPath;
+            renamed.firstGeneration = prev.firstGeneration;
+            mPending.remove(path);
+            mPending.put(path, renamed);
+        } else if (prev.event == FileObserver.CREATE) {
+            // the listener never heard of the old path
+            put(FileObserver.CREATE, path, metadata, generation, prev.firstGeneration);
+        } else {
+            // the old path has a change pending that can no longer be read from there
+            put(FileObserver.DELETE, oldPath, null, unlinked, prev.firstGeneration);
+            put(FileObserver.CREATE, path, metadata, generation, generation);
+        }
+
+        scheduleFlush();
+    }
+
+    private void put(int event, String path, FsWatcher.SimpleFileMetadata metadata, long generation, long firstGeneration) {
+        Pending prev = mPending.get(path);
+        if (prev == null) {
+            Pending pending = new Pending(event, path, metadata, generation);
+            pending.firstGeneration = Math.min(generation, firstGeneration);
+            mPending.put(path, pending);
+            return;
+        }
+        int merged = merge(prev.event, event);
+        if (merged == 0) {
+            mPending.remove(path);
+        } else {
+            prev.event = merged;
+            prev.generation = Math.max(prev.generation, generation);
+            prev.firstGeneration = Math.min(prev.firstGeneration, firstGeneration);
+            if (metadata != null) {
+                prev.metadata = metadata;
+            }
+        }
+    }
+
+    private void scheduleFlush() {
+        if (mClosed) {
+            mPending.clear();
+            return;
+        }
+        try {
+            if (mPending.size() >= mMaxSize) {
+                if (!mImmediateFlushQueued) {
+                    mExecutor.execute(this::flush);
+                    mImmediateFlushQueued = true;
+                    mFlushScheduled = true;
+                }
+            } else if (!mFlushScheduled) {
+                mExecutor.schedule(this::flush, mInterval, TimeUnit.MILLISECONDS);
+                mFlushScheduled = true;
+            }
+        } catch (RejectedExecutionException e) {
+            // closed
+        }
+    }
+
+    // pending events are dropped, a flush already scheduled finds nothing to send
+    public synchronized void close() {
+        mClosed = true;
+        mPending.clear();
+    }
+
+    // 0 means the two events cancel out
+    static int merge(int prev, int next) {
+        switch (prev) {
+            case FileObserver.CREATE:
+                if (next == FileObserver.DELETE) {
+                    return 0;
+                }
+                return FileObserver.CREATE;
+            case FileObserver.DELETE:
+                if (next == FileObserver.DELETE) {
+                    return FileObserver.DELETE;
+                }
+                // deleted then re-created, for the listener it's the same file changed
+                return FileObserver.MODIFY;
+            default:
+                return next == FileObserver.CREATE ? FileObserver.MODIFY : next;
+        }
+    }
+
+    private void flush() {
+        Map<String, Pending> pending;
+        synchronized (this) {
+            pending = mPending;
+            mPending = new LinkedHashMap<>();
+            mFlushScheduled = false;
+            mImmediateFlushQueued = false;
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        // in one go, a watermark must never pass events of this flush still on their way
+        mSink.onBatch(new ArrayList<>(pending.values()));
+    }
+}
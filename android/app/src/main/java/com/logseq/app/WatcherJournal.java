@@ -0,0 +1,85 @@
+package com.logseq.app;
+
+import android.os.FileObserver;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+// Bounded log of what the watcher reported for one root, so a listener that missed events (WebView
+// reload, busy render process) can catch up with changesSince() instead of re-walking the graph.
+//
+// Every recorded change gets the next generation number. Only the latest entry per path is kept,
+// ordered by generation, so the oldest entries are the first to go once the journal is full; a
+// caller asking for changes older than that must resync.
+final class WatcherJournal {
+    static final class Entry {
+        public final long generation;
+        public final int event;
+        public final String path;
+        public final FsWatcher.SimpleFileMetadata metadata;
+
+        Entry(long generation, int event, String path, FsWatcher.SimpleFileMetadata metadata) {
+            this.generation = generation;
+            this.event = event;
+            this.path = path;
+            this.metadata = metadata;
+        }
+    }
+
+    private final int mMaxSize;
+    // insertion order is generation order, entries are re-inserted on every change
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>();
+    private long mGeneration = 0;
+    // highest generation evicted, changes after it are complete
+    private long mFloor = 0;
+
+    WatcherJournal(int maxSize) {
+        mMaxSize = Math.max(1, maxSize);
+    }
+
+    // returns the generation of this change
+    public synchronized long record(int event, String path, FsWatcher.SimpleFileMetadata metadata) {
+        Entry prev = mEntries.remove(path);
+        if (prev != null) {
+            event = collapse(prev.event, event);
+        }
+        long generation = ++mGeneration;
+        mEntries.put(path, new Entry(generation, event, path, metadata));
+
+        if (mEntries.size() > mMaxSize) {
+            Iterator<Entry> it = mEntries.values().iterator();
+            mFloor = it.next().generation;
+            it.remove();
+        }
+        return generation;
+    }
+
+    public synchronized long generation() {
+        return mGeneration;
+    }
+
+    // null when entries after since were already evicted
+    public synchronized List<Entry> since(long since) {
+        if (since < mFloor) {
+            return null;
+        }
+        List<Entry> changes = new ArrayList<>();
+        for (Entry entry : mEntries.values()) {
+            if (entry.generation > since) {
+                changes.add(entry);
+            }
+        }
+        return changes;
+    }
+
+    // Like WatcherEventBatcher.merge, except an add followed by an unlink never cancels out: some
+    // callers may have seen the add already.
+    static int collapse(int prev, int next) {
+        if (next == FileObserver.DELETE) {
+            return FileObserver.DELETE;
+        }
+        return WatcherEventBatcher.merge(prev, next);
+    }
+}
@@ -0,0 +1,105 @@
+package com.logseq.app;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Counters of what watching costs, shared by all roots and the static helpers that do the I/O.
+// Cheap enough to stay on: one atomic add per syscall or event.
+final class WatcherMetrics {
+    static final class Histogram {
+        // inclusive upper bounds in ms ("le"), the last bucket takes the rest
+        static final long[] BOUNDS = {1, 5, 10, 50, 100, 500, 1000, 5000};
+
+        private final AtomicLongArray mCounts = new AtomicLongArray(BOUNDS.length + 1);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mSum = new AtomicLong();
+        private final AtomicLong mMax = new AtomicLong();
+
+        // index of the bucket ms is counted in
+        static int bucketOf(long ms) {
+            int i = 0;
+            while (i < BOUNDS.length && ms > BOUNDS[i]) {
+                i++;
+            }
+            return i;
+        }
+
+        public void record(long ms) {
+            mCounts.incrementAndGet(bucketOf(ms));
+            mCount.incrementAndGet();
+            mSum.addAndGet(ms);
+            long max;
+            while (ms > (max = mMax.get()) && !mMax.compareAndSet(max, ms)) {
+            }
+        }
+
+        JSObject toJSObject() {
+            JSObject obj = new JSObject();
+            obj.put("count", mCount.get());
+            obj.put("sum", mSum.get());
+            obj.put("max", mMax.get());
+            JSArray buckets = new JSArray();
+            for (int i = 0; i <= BOUNDS.length; i++) {
+                JSObject bucket = new JSObject();
+                // JSONObject drops null values, the open-ended last bucket is "+Inf" as in Prometheus
+                if (i < BOUNDS.length) {
+                    bucket.put("le", BOUNDS[i]);
+                } else {
+                    bucket.put("le", "+Inf");
+                }
+                bucket.put("count", mCounts.get(i));
+                buckets.put(bucket);
+            }
+            obj.put("buckets", buckets);
+            return obj;
+        }
+    }
+
+    // one polling tick, inotify flush or initial scan
+    public final Histogram scanDuration = new Histogram();
+    // from the watcher noticing a change to notifyListeners
+    public final Histogram dispatchLatency = new Histogram();
+    public final AtomicLong dirsVisited = new AtomicLong();
+    public final AtomicLong filesVisited = new AtomicLong();
+    public final AtomicLong statCalls = new AtomicLong();
+    public final AtomicLong bytesRead = new AtomicLong();
+    public final AtomicLong addEvents = new AtomicLong();
+    public final AtomicLong changeEvents = new AtomicLong();
+    public final AtomicLong unlinkEvents = new AtomicLong();
+    public final AtomicLong renameEvents = new AtomicLong();
+
+    private long mLastReportAt = System.nanoTime();
+    private long mLastReportEvents = 0;
+
+    public long events() {
+        return addEvents.get() + changeEvents.get() + unlinkEvents.get() + renameEvents.get();
+    }
+
+    public void putStats(JSObject stats) {
+        stats.put("scanDuration", scanDuration.toJSObject());
+        stats.put("dispatchLatency", dispatchLatency.toJSObject());
+        stats.put("dirsVisited", dirsVisited.get());
+        stats.put("filesVisited", filesVisited.get());
+        stats.put("statCalls", statCalls.get());
+        stats.put("bytesRead", bytesRead.get());
+        JSObject events = new JSObject();
+        events.put("add", addEvents.get());
+        events.put("change", changeEvents.get());
+        events.put("unlink", unlinkEvents.get());
+        events.put("rename", renameEvents.get());
+        stats.put("events", events);
+    }
+
+    // events per second since the previous call, for the periodic watcherStats event
+    public synchronized double eventRate() {
+        long now = System.nanoTime();
+        long events = this.events();
+        double rate = now > mLastReportAt ? (events - mLastReportEvents) * 1e9 / (now - mLastReportAt) : 0;
+        mLastReportAt = now;
+        mLastReportEvents = events;
+        return rate;
+    }
+}
@@ -0,0 +1,136 @@
+package com.logseq.app;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+// Binary dump of a watcher's metaDb, so a cold start can diff against what was on disk when the
+// app last ran instead of treating the whole graph as unchanged.
+//
+// Layout: magic, version, root, count, then per file: path relative to root, mtime, ctime, size, ino,
+// content hash.
+final class WatcherSnapshot {
+    private static final int MAGIC = 0x4c535157; // "LSQW"
+    private static final int VERSION = 2;
+
+    private WatcherSnapshot() {
+    }
+
+    public static File fileFor(File baseDir, String root) {
+        return new File(new File(baseDir, "fs-watcher"), fileName(root) + ".snapshot");
+    }
+
+    // SHA-1 of the root in hex, graphs watched together must never share a file
+    static String fileName(String root) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // required on every Java platform
+            throw new IllegalStateException(e);
+        }
+        StringBuilder sb = new StringBuilder(40);
+        for (byte b : digest.digest(root.getBytes(StandardCharsets.UTF_8))) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    // returns null when there's no usable snapshot for this root
+    public static Map<String, FsWatcher.SimpleFileMetadata> load(File file, String root) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(root)) {
+                Log.w("FsWatcher", "ignore incompatible snapshot " + file);
+                return null;
+            }
+            int count = in.readInt();
+            Map<String, FsWatcher.SimpleFileMetadata> metaDb = new HashMap<>(count * 4 / 3 + 1);
+            String prefix = root + "/";
+            for (int i = 0; i < count; i++) {
+                String path = prefix + in.readUTF();
+                metaDb.put(path, new FsWatcher.SimpleFileMetadata(in.readLong(), in.readLong(), in.readLong(), in.readLong(), in.readLong()));
+            }
+            Log.i("FsWatcher", "loaded snapshot of " + count + " files for " + root);
+            return metaDb;
+        } catch (IOException e) {
+            Log.w("FsWatcher", "cannot load snapshot " + file, e);
+            return null;
+        }
+    }
+
+    public static void save(File file, String root, Map<String, FsWatcher.SimpleFileMetadata> metaDb) {
+        int prefixLength = root.length() + 1;
+        write(file, root, metaDb.size(), out -> {
+            for (Map.Entry<String, FsWatcher.SimpleFileMetadata> entry : metaDb.entrySet()) {
+                FsWatcher.SimpleFileMetadata meta = entry.getValue();
+                writeEntry(out, entry.getKey().substring(prefixLength), meta.mtime, meta.ctime, meta.size, meta.ino, meta.hash);
+            }
+        });
+    }
+
+    public static void save(File file, String root, CompactMetaStore store) {
+        int prefixLength = root.length() + 1;
+        write(file, root, store.size(), out -> {
+            for (int slot = 0; slot < store.capacity(); slot++) {
+                if (store.isLive(slot)) {
+                    writeEntry(out, store.path(slot).substring(prefixLength),
+                        store.mtime(slot), store.ctime(slot), store.size(slot), store.ino(slot), store.hash(slot));
+                }
+            }
+        });
+    }
+
+    private interface EntryWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static void writeEntry(DataOutputStream out, String relpath, long mtime, long ctime, long size, long ino, long hash) throws IOException {
+        out.writeUTF(relpath);
+        out.writeLong(mtime);
+        out.writeLong(ctime);
+        out.writeLong(size);
+        out.writeLong(ino);
+        out.writeLong(hash);
+    }
+
+    private static void write(File file, String root, int count, EntryWriter entries) {
+        File dir = file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            Log.w("FsWatcher", "cannot create snapshot dir " + dir);
+            return;
+        }
+
+        // write aside then rename, a crash mid-write must not leave a truncated snapshot behind
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(root);
+            out.writeInt(count);
+            entries.write(out);
+        } catch (IOException e) {
+            Log.w("FsWatcher", "cannot save snapshot " + file, e);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            Log.w("FsWatcher", "cannot replace snapshot " + file);
+            tmp.delete();
+        }
+    }
+}
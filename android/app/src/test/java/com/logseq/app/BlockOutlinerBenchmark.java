@@ -0,0 +1,66 @@
+package com.logseq.app;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+// Parse throughput over the pages of the graph parser's exporter test graph, real Markdown journals
+// and pages plus an Org page. Logged in MB/s of UTF-16 content and blocks/s, the assertion only
+// catches a parser gone quadratic.
+public class BlockOutlinerBenchmark {
+    // relative to the app module, which unit tests run in
+    private static final File GRAPH = new File("../../deps/graph-parser/test/resources/exporter-test-graph");
+    private static final int WARMUP = 500;
+    private static final int ROUNDS = 3000;
+
+    private static final List<String> sPages = new ArrayList<>();
+    private static final List<Boolean> sOrg = new ArrayList<>();
+    private static long sChars = 0;
+
+    @BeforeClass
+    public static void readPages() throws IOException {
+        for (String dir : new String[] {"journals", "pages", "ignored"}) {
+            File[] files = new File(GRAPH, dir).listFiles();
+            assertTrue("missing " + GRAPH + "/" + dir, files != null);
+            for (File file : files) {
+                if (BlockOutliner.isOutlined(file.getName())) {
+                    String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+                    sPages.add(content);
+                    sOrg.add(file.getName().endsWith(".org"));
+                    sChars += content.length();
+                }
+            }
+        }
+        assertTrue(sOrg.contains(true));
+    }
+
+    @Test
+    public void parseThroughput() {
+        long blocks = this.parseAll(WARMUP);
+        long start = System.nanoTime();
+        blocks = this.parseAll(ROUNDS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double mbPerSecond = sChars * 2.0 * ROUNDS / seconds / (1 << 20);
+        System.out.println(String.format("BlockOutliner: %d pages, %d chars, %.1f MB/s, %.0f blocks/s",
+            sPages.size(), sChars, mbPerSecond, blocks / seconds));
+        assertTrue(mbPerSecond > 5);
+    }
+
+    private long parseAll(int rounds) {
+        long blocks = 0;
+        for (int r = 0; r < rounds; r++) {
+            for (int i = 0; i < sPages.size(); i++) {
+                blocks += BlockOutliner.parse(sPages.get(i), sOrg.get(i)).count;
+            }
+        }
+        return blocks;
+    }
+}
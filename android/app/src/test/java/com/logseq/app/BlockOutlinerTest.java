@@ -0,0 +1,135 @@
+package com.logseq.app;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class BlockOutlinerTest {
+    private static int[] levels(BlockOutliner.Outline outline) {
+        return Arrays.copyOf(outline.levels, outline.count);
+    }
+
+    private static int[] parents(BlockOutliner.Outline outline) {
+        return Arrays.copyOf(outline.parents, outline.count);
+    }
+
+    private static String text(String content, BlockOutliner.Outline outline, int block) {
+        return content.substring(outline.starts[block], outline.ends[block]);
+    }
+
+    @Test
+    public void nestedBulletsAndRanges() {
+        String content = "- a\n  - b\n    continued\n  - c\n- d";
+        BlockOutliner.Outline outline = BlockOutliner.parse(content, false);
+        assertArrayEquals(new int[] {1, 2, 2, 1}, levels(outline));
+        assertArrayEquals(new int[] {-1, 0, 0, -1}, parents(outline));
+        assertEquals("- a\n", text(content, outline, 0));
+        assertEquals("  - b\n    continued\n", text(content, outline, 1));
+        assertEquals("  - c\n", text(content, outline, 2));
+        assertEquals("- d", text(content, outline, 3));
+    }
+
+    @Test
+    public void tabsAndSpacesIndentAlike() {
+        BlockOutliner.Outline outline = BlockOutliner.parse("- a\n\t- b\n\t\t- c\n  - d", false);
+        assertArrayEquals(new int[] {1, 2, 3, 2}, levels(outline));
+        assertArrayEquals(new int[] {-1, 0, 1, 0}, parents(outline));
+    }
+
+    @Test
+    public void preBlockHoldsPageProperties() {
+        String content = "title:: Page\ntags:: a, b\n\n- first\n  id:: 6540a1b2-0000-4000-8000-000000000001\n  collapsed:: true\n  note:: still one\n  text\n  late:: ignored";
+        BlockOutliner.Outline outline = BlockOutliner.parse(content, false);
+        assertArrayEquals(new int[] {0, 1}, levels(outline));
+        assertArrayEquals(new String[] {"title", "Page", "tags", "a, b"}, outline.properties[0]);
+        assertEquals("6540a1b2-0000-4000-8000-000000000001", outline.ids[1]);
+        // properties stop at the first line that isn't one
+        assertArrayEquals(new String[] {"collapsed", "true", "note", "still one"}, outline.properties[1]);
+        assertNull(outline.ids[0]);
+    }
+
+    @Test
+    public void propertiesOnlyBlock() {
+        BlockOutliner.Outline outline = BlockOutliner.parse("- alias:: x\n- y", false);
+        assertArrayEquals(new String[] {"alias", "x"}, outline.properties[0]);
+        assertNull(outline.properties[1]);
+    }
+
+    @Test
+    public void bulletsInsideAMarkdownFenceAreCode() {
+        String content = "- code\n  ```\n  - x\n  # y\n  ```\n- after";
+        BlockOutliner.Outline outline = BlockOutliner.parse(content, false);
+        assertArrayEquals(new int[] {1, 1}, levels(outline));
+        assertEquals("- code\n  ```\n  - x\n  # y\n  ```\n", text(content, outline, 0));
+    }
+
+    @Test
+    public void headingsAtColumnZeroStartBlocks() {
+        BlockOutliner.Outline outline = BlockOutliner.parse("# Title\ntext\n####### not a heading\n#tag", false);
+        assertEquals(1, outline.count);
+    }
+
+    @Test
+    public void orgHeadingsInsideASourceBlockAreCode() {
+        String content = "* code\n#+BEGIN_SRC clojure\n* x\n** y\n#+end_src\n* after";
+        BlockOutliner.Outline outline = BlockOutliner.parse(content, true);
+        assertArrayEquals(new int[] {1, 1}, levels(outline));
+        assertEquals("* code\n#+BEGIN_SRC clojure\n* x\n** y\n#+end_src\n", text(content, outline, 0));
+    }
+
+    @Test
+    public void orgPropertiesDrawer() {
+        String content = "#+title: Page\n#+tags: a\n\n* A\n:PROPERTIES:\n:ID: 6540a1b2-0000-4000-8000-000000000002\n:custom_key: value\n:END:\nbody\n:not: a property\n* B";
+        BlockOutliner.Outline outline = BlockOutliner.parse(content, true);
+        assertArrayEquals(new int[] {0, 1, 1}, levels(outline));
+        assertArrayEquals(new String[] {"title", "Page", "tags", "a"}, outline.properties[0]);
+        assertEquals("6540a1b2-0000-4000-8000-000000000002", outline.ids[1]);
+        assertArrayEquals(new String[] {"custom_key", "value"}, outline.properties[1]);
+        assertNull(outline.properties[2]);
+    }
+
+    @Test
+    public void orgSkippedHeadingLevelHangsOffTheHeadingAbove() {
+        BlockOutliner.Outline outline = BlockOutliner.parse("* A\n*** C\n** B\n**** D\n* E", true);
+        assertArrayEquals(new int[] {1, 3, 2, 4, 1}, levels(outline));
+        assertArrayEquals(new int[] {-1, 0, 0, 2, -1}, parents(outline));
+    }
+
+    @Test
+    public void orgFirstHeadingBelowLevelOne() {
+        BlockOutliner.Outline outline = BlockOutliner.parse("** A\n* B\n** C", true);
+        assertArrayEquals(new int[] {2, 1, 2}, levels(outline));
+        assertArrayEquals(new int[] {-1, -1, 1}, parents(outline));
+    }
+
+    @Test
+    public void orgIndentedStarsAreNotHeadings() {
+        BlockOutliner.Outline outline = BlockOutliner.parse("* A\n  * list item\n*bold*", true);
+        assertEquals(1, outline.count);
+    }
+
+    @Test
+    public void rangesCoverTheWholeContent() {
+        String content = "pre\n- a\n  - b\n- c\n";
+        BlockOutliner.Outline outline = BlockOutliner.parse(content, false);
+        assertEquals(0, outline.starts[0]);
+        for (int i = 1; i < outline.count; i++) {
+            assertEquals(outline.ends[i - 1], outline.starts[i]);
+        }
+        assertEquals(content.length(), outline.ends[outline.count - 1]);
+    }
+
+    @Test
+    public void outlinedFiles() {
+        assertTrue(BlockOutliner.isOutlined("a.md"));
+        assertTrue(BlockOutliner.isOutlined("A.ORG"));
+        assertTrue(BlockOutliner.isOutlined("a.markdown"));
+        assertFalse(BlockOutliner.isOutlined("a.edn"));
+    }
+}
@@ -0,0 +1,16 @@
+package com.logseq.app;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+public class BulkFsTest {
+    @Test
+    public void utf8LengthCountsEncodedBytes() {
+        for (String s : new String[] {"", "ascii", "café", "日本語のページ", "emoji 🎉 and 𝄞", "mixed é日🎉"}) {
+            assertEquals(s, s.getBytes(StandardCharsets.UTF_8).length, BulkFs.utf8Length(s));
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.logseq.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class CompactMetaStoreTest {
+    private static FsWatcher.SimpleFileMetadata meta(long mtime) {
+        return new FsWatcher.SimpleFileMetadata(mtime, mtime + 1, 100, mtime + 2, 0);
+    }
+
+    @Test
+    public void putThenFind() {
+        CompactMetaStore store = new CompactMetaStore();
+        store.put("/g/pages/a.md", meta(10));
+        store.put("/g/journals/b.md", meta(20));
+
+        int a = store.find("/g/pages/a.md");
+        assertTrue(a >= 0);
+        assertEquals("/g/pages/a.md", store.path(a));
+        assertEquals(10, store.get(a).mtime);
+        assertEquals(a, store.find(store.dirId("/g/pages"), "a.md"));
+        assertEquals(2, store.size());
+
+        assertEquals(-1, store.find("/g/pages/b.md"));
+        assertEquals(-1, store.find("/g/other/a.md"));
+    }
+
+    @Test
+    public void putReplacesTheEntry() {
+        CompactMetaStore store = new CompactMetaStore();
+        store.put("/g/a.md", meta(10));
+        store.put("/g/a.md", meta(30));
+        assertEquals(1, store.size());
+        assertEquals(30, store.get(store.find("/g/a.md")).mtime);
+    }
+
+    @Test
+    public void sweepRemovesWhatTheScanDidNotTouch() {
+        CompactMetaStore store = new CompactMetaStore();
+        store.put("/g/a.md", meta(10));
+        store.put("/g/b.md", meta(20));
+        store.put("/g/c.md", meta(30));
+
+        store.beginScan();
+        store.touch(store.find("/g/a.md"));
+        store.put("/g/c.md", meta(31));
+        Map<String, FsWatcher.SimpleFileMetadata> removed = new HashMap<>();
+        store.sweep(removed);
+
+        assertEquals(1, removed.size());
+        assertEquals(20, removed.get("/g/b.md").mtime);
+        assertEquals(2, store.size());
+        assertEquals(-1, store.find("/g/b.md"));
+        assertTrue(store.find("/g/a.md") >= 0);
+    }
+
+    @Test
+    public void freedSlotsAreReused() {
+        CompactMetaStore store = new CompactMetaStore();
+        store.put("/g/a.md", meta(10));
+        store.put("/g/b.md", meta(20));
+        int b = store.find("/g/b.md");
+
+        store.beginScan();
+        store.touch(store.find("/g/a.md"));
+        store.sweep(null);
+        assertFalse(store.isLive(b));
+
+        store.put("/g/c.md", meta(30));
+        assertEquals(b, store.find("/g/c.md"));
+        assertEquals(2, store.capacity());
+    }
+
+    @Test
+    public void emptiedDirectoriesAreReleased() {
+        CompactMetaStore store = new CompactMetaStore();
+        store.put("/g/pages/a.md", meta(10));
+        store.put("/g/old/b.md", meta(20));
+        assertEquals(2, store.dirCount());
+
+        // old/ renamed to new/, again and again
+        for (int i = 0; i < 100; i++) {
+            store.beginScan();
+            store.touch(store.find("/g/pages/a.md"));
+            store.put("/g/new" + i + "/b.md", meta(20));
+            store.sweep(null);
+            assertEquals(2, store.dirCount());
+        }
+        assertEquals(-1, store.find("/g/old/b.md"));
+        assertEquals(20, store.get(store.find("/g/new99/b.md")).mtime);
+        assertEquals("/g/new99/b.md", store.path(store.find("/g/new99/b.md")));
+        assertEquals("/g/pages/a.md", store.path(store.find("/g/pages/a.md")));
+    }
+
+    @Test
+    public void setHashIsKept() {
+        CompactMetaStore store = new CompactMetaStore();
+        store.put("/g/a.md", meta(10));
+        int slot = store.find("/g/a.md");
+        store.setHash(slot, 42);
+        assertEquals(42, store.hash(slot));
+        assertEquals(42, store.get(slot).hash);
+    }
+
+    @Test
+    public void growsAndSurvivesChurn() {
+        CompactMetaStore store = new CompactMetaStore();
+        int files = 20000;
+        for (int i = 0; i < files; i++) {
+            store.put("/g/d" + (i % 50) + "/p" + i + ".md", meta(i));
+        }
+        assertEquals(files, store.size());
+
+        // every other file goes away, a tombstone each
+        for (int round = 0; round < 3; round++) {
+            store.beginScan();
+            for (int i = round % 2; i < files; i += 2) {
+                store.put("/g/d" + (i % 50) + "/p" + i + ".md", meta(i));
+            }
+            store.sweep(null);
+            assertEquals(files / 2, store.size());
+        }
+        for (int i = 0; i < files; i++) {
+            int slot = store.find("/g/d" + (i % 50) + "/p" + i + ".md");
+            assertEquals(i % 2 == 0, slot >= 0);
+            if (slot >= 0) {
+                assertEquals(i, store.mtime(slot));
+            }
+        }
+    }
+}
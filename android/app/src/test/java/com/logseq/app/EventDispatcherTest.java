@@ -0,0 +1,237 @@
+package com.logseq.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.os.FileObserver;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// Events leave by priority and merges keep their place, the watermarks handed along must still let
+// a listener catch up through the journal without missing anything.
+public class EventDispatcherTest {
+    private static final class Delivery {
+        final List<WatcherEventBatcher.Pending> events;
+        final long watermark;
+        final boolean resync;
+
+        Delivery(List<WatcherEventBatcher.Pending> events, long watermark, boolean resync) {
+            this.events = events;
+            this.watermark = watermark;
+            this.resync = resync;
+        }
+    }
+
+    // config first, everything else last; holds the sender on the first delivery until released
+    private static final class Listener implements EventDispatcher.Target {
+        final List<Delivery> deliveries = new ArrayList<>();
+        final CountDownLatch held = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public int priorityOf(WatcherEventBatcher.Pending pending) {
+            return pending.path.startsWith("logseq/") ? 0 : EventPriority.CLASSES - 1;
+        }
+
+        @Override
+        public void deliver(List<WatcherEventBatcher.Pending> events, long watermark) {
+            this.add(new Delivery(new ArrayList<>(events), watermark, false));
+        }
+
+        @Override
+        public void deliverResync(long watermark) {
+            this.add(new Delivery(new ArrayList<>(), watermark, true));
+        }
+
+        private void add(Delivery delivery) {
+            boolean first;
+            synchronized (this) {
+                first = deliveries.isEmpty();
+                deliveries.add(delivery);
+                this.notifyAll();
+            }
+            if (first) {
+                held.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        synchronized List<Delivery> await(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (deliveries.size() < count) {
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) {
+                    fail("only " + deliveries.size() + " of " + count + " deliveries");
+                }
+                this.wait(left);
+            }
+            return new ArrayList<>(deliveries);
+        }
+    }
+
+    private final WatcherJournal mJournal = new WatcherJournal(1000);
+    private final Listener mListener = new Listener();
+    private EventDispatcher mDispatcher;
+
+    @After
+    public void tearDown() {
+        mListener.release.countDown();
+        if (mDispatcher != null) {
+            mDispatcher.close();
+        }
+    }
+
+    private void start(int softLimit, int hardLimit) throws InterruptedException {
+        mDispatcher = new EventDispatcher(softLimit, hardLimit, 1);
+        // taken off the queue at once, the sender then waits in its delivery
+        this.change(FileObserver.MODIFY, "pages/held.md");
+        assertTrue(mListener.held.await(5, TimeUnit.SECONDS));
+    }
+
+    private long change(int event, String path) {
+        long generation = mJournal.record(event, path, null);
+        mDispatcher.enqueue(mListener, new WatcherEventBatcher.Pending(event, path, null, generation));
+        return generation;
+    }
+
+    private long rename(String oldPath, String path) {
+        long unlinked = mJournal.record(FileObserver.DELETE, oldPath, null);
+        long generation = mJournal.record(FileObserver.CREATE, path, null);
+        WatcherEventBatcher.Pending pending = new WatcherEventBatcher.Pending(FileObserver.MOVED_TO, path, null, generation);
+        pending.oldPath = oldPath;
+        pending.firstGeneration = unlinked;
+        mDispatcher.enqueue(mListener, pending);
+        return generation;
+    }
+
+    // every journaled change is either delivered by then or still returned by changesSince(watermark)
+    private void assertCaughtUp(List<Delivery> deliveries) {
+        List<WatcherJournal.Entry> journaled = mJournal.since(0);
+        for (int k = 1; k < deliveries.size(); k++) {
+            long watermark = deliveries.get(k).watermark;
+            for (WatcherJournal.Entry entry : journaled) {
+                if (entry.generation > watermark || this.delivered(deliveries.subList(0, k + 1), entry)) {
+                    continue;
+                }
+                fail(entry.path + " at " + entry.generation + " lost behind watermark " + watermark + " of delivery " + k);
+            }
+        }
+    }
+
+    private boolean delivered(List<Delivery> deliveries, WatcherJournal.Entry entry) {
+        for (Delivery delivery : deliveries) {
+            for (WatcherEventBatcher.Pending pending : delivery.events) {
+                if (pending.path.equals(entry.path) && pending.generation >= entry.generation) {
+                    return true;
+                }
+                if (entry.path.equals(pending.oldPath) && pending.firstGeneration >= entry.generation) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static List<String> paths(List<WatcherJournal.Entry> entries) {
+        List<String> paths = new ArrayList<>();
+        for (WatcherJournal.Entry entry : entries) {
+            paths.add(entry.path);
+        }
+        return paths;
+    }
+
+    @Test
+    public void configOvertakingPagesDoesNotPassThem() throws InterruptedException {
+        this.start(100, 1000);
+        for (int i = 1; i <= 5; i++) {
+            this.change(FileObserver.MODIFY, "pages/p" + i + ".md");
+        }
+        long config = this.change(FileObserver.MODIFY, "logseq/config.edn");
+        mListener.release.countDown();
+
+        List<Delivery> deliveries = mListener.await(7);
+        Delivery first = deliveries.get(1);
+        assertEquals("logseq/config.edn", first.events.get(0).path);
+        assertEquals(config, first.events.get(0).generation);
+        // only held.md is behind it, the pages still queued are not
+        assertEquals(1, first.watermark);
+        List<String> missed = paths(mJournal.since(first.watermark));
+        for (int i = 1; i <= 5; i++) {
+            assertTrue(missed.contains("pages/p" + i + ".md"));
+        }
+
+        assertCaughtUp(deliveries);
+        assertEquals(config, deliveries.get(6).watermark);
+    }
+
+    @Test
+    public void mergedEventKeepsHoldingTheWatermark() throws InterruptedException {
+        this.start(3, 1000);
+        this.change(FileObserver.MODIFY, "pages/a.md");
+        long b = this.change(FileObserver.MODIFY, "pages/b.md");
+        this.change(FileObserver.MODIFY, "pages/c.md");
+        // past the soft limit, merged into a.md's queued event which keeps its place
+        long a = this.change(FileObserver.MODIFY, "pages/a.md");
+        long config = this.change(FileObserver.MODIFY, "logseq/config.edn");
+        mListener.release.countDown();
+
+        List<Delivery> deliveries = mListener.await(5);
+        assertEquals("logseq/config.edn", deliveries.get(1).events.get(0).path);
+        assertEquals(1, deliveries.get(1).watermark);
+        Delivery merged = deliveries.get(2);
+        assertEquals("pages/a.md", merged.events.get(0).path);
+        assertEquals(a, merged.events.get(0).generation);
+        // b.md and c.md are still queued
+        assertEquals(b - 1, merged.watermark);
+
+        assertCaughtUp(deliveries);
+        assertEquals(config, deliveries.get(4).watermark);
+    }
+
+    @Test
+    public void renameHoldsTheWatermarkAtItsUnlink() throws InterruptedException {
+        this.start(100, 1000);
+        long renamed = this.rename("pages/old.md", "pages/new.md");
+        long config = this.change(FileObserver.MODIFY, "logseq/config.edn");
+        mListener.release.countDown();
+
+        List<Delivery> deliveries = mListener.await(3);
+        assertEquals("logseq/config.edn", deliveries.get(1).events.get(0).path);
+        // the unlink of old.md is at renamed - 1
+        assertEquals(renamed - 2, deliveries.get(1).watermark);
+        assertTrue(paths(mJournal.since(deliveries.get(1).watermark)).contains("pages/old.md"));
+
+        assertCaughtUp(deliveries);
+        assertEquals(config, deliveries.get(2).watermark);
+    }
+
+    @Test
+    public void resyncWatermarkIsBehindTheDroppedEvents() throws InterruptedException {
+        this.start(2, 3);
+        long a = this.change(FileObserver.MODIFY, "pages/a.md");
+        this.change(FileObserver.MODIFY, "pages/b.md");
+        this.change(FileObserver.MODIFY, "pages/c.md");
+        // over the hard limit, everything queued is dropped for a resync
+        this.change(FileObserver.MODIFY, "pages/d.md");
+        this.change(FileObserver.MODIFY, "pages/e.md");
+        mListener.release.countDown();
+
+        List<Delivery> deliveries = mListener.await(2);
+        Delivery resync = deliveries.get(1);
+        assertTrue(resync.resync);
+        assertEquals(a - 1, resync.watermark);
+        assertEquals(5, mJournal.since(resync.watermark).size());
+        assertCaughtUp(deliveries);
+    }
+}
@@ -0,0 +1,128 @@
+package com.logseq.app;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class IgnoreRulesTest {
+    private static final String ROOT = "/graphs/notes";
+
+    private static IgnoreRules rules(String... patterns) {
+        return IgnoreRules.compile(ROOT, Arrays.asList(patterns));
+    }
+
+    @Test
+    public void defaultsSkipHiddenAndBackupDirectories() {
+        IgnoreRules rules = IgnoreRules.compile(ROOT, null);
+        assertTrue(rules.isIgnored(ROOT + "/.git", true));
+        assertTrue(rules.isIgnored(ROOT + "/logseq/.recycle", true));
+        assertTrue(rules.isIgnored(ROOT + "/logseq/bak", true));
+        assertTrue(rules.isIgnored(ROOT + "/version-files", true));
+        assertTrue(rules.isIgnored(ROOT + "/assets/node_modules", true));
+        assertTrue(rules.isIgnored(ROOT + "/logseq/graphs-txid.edn", false));
+        assertTrue(rules.isIgnored(ROOT + "/logseq/broken-config.edn", false));
+
+        assertFalse(rules.isIgnored(ROOT + "/pages", true));
+        assertFalse(rules.isIgnored(ROOT + "/logseq/config.edn", false));
+        // hidden directories only, not files
+        assertFalse(rules.isIgnored(ROOT + "/pages/.hidden.md", false));
+        assertFalse(rules.isIgnored(ROOT + "/pages/bak", false));
+    }
+
+    @Test
+    public void defaultsSkipWriterTempFiles() {
+        IgnoreRules rules = IgnoreRules.compile(ROOT, Collections.emptyList());
+        assertTrue(rules.isIgnored(ROOT + "/pages/a.md" + GroupCommitWriter.TEMP_SUFFIX, false));
+        assertFalse(rules.isIgnored(ROOT + "/pages/a.md", false));
+    }
+
+    @Test
+    public void doubleStarSlashMatchesAnyDepth() {
+        IgnoreRules rules = rules("**/drafts/*.md");
+        assertTrue(rules.isIgnored(ROOT + "/drafts/a.md", false));
+        assertTrue(rules.isIgnored(ROOT + "/pages/x/drafts/a.md", false));
+        assertFalse(rules.isIgnored(ROOT + "/drafts/sub/a.md", false));
+        assertFalse(rules.isIgnored(ROOT + "/pages/a.md", false));
+    }
+
+    @Test
+    public void negatedCharacterClass() {
+        IgnoreRules rules = rules("draft[!s].md");
+        assertTrue(rules.isIgnored(ROOT + "/pages/drafta.md", false));
+        assertFalse(rules.isIgnored(ROOT + "/pages/drafts.md", false));
+        assertFalse(rules.isIgnored(ROOT + "/pages/draft/.md", false));
+    }
+
+    @Test
+    public void leadingSlashAnchorsToTheRoot() {
+        IgnoreRules rules = rules("/assets");
+        assertTrue(rules.isIgnored(ROOT + "/assets", true));
+        assertFalse(rules.isIgnored(ROOT + "/pages/assets", true));
+    }
+
+    @Test
+    public void unanchoredNameMatchesAtAnyDepth() {
+        IgnoreRules rules = rules("*.pdf", "tmp/");
+        assertTrue(rules.isIgnored(ROOT + "/a.pdf", false));
+        assertTrue(rules.isIgnored(ROOT + "/assets/x/b.pdf", false));
+        assertTrue(rules.isIgnored(ROOT + "/pages/tmp", true));
+        assertFalse(rules.isIgnored(ROOT + "/pages/tmp", false));
+    }
+
+    @Test
+    public void negationLastMatchWins() {
+        IgnoreRules keep = rules("*.org", "!keep.org");
+        assertTrue(keep.isIgnored(ROOT + "/pages/a.org", false));
+        assertFalse(keep.isIgnored(ROOT + "/pages/keep.org", false));
+
+        IgnoreRules drop = rules("!keep.org", "*.org");
+        assertTrue(drop.isIgnored(ROOT + "/pages/keep.org", false));
+    }
+
+    @Test
+    public void negationCanBringBackADefault() {
+        IgnoreRules rules = rules("!.well-known/");
+        assertFalse(rules.isIgnored(ROOT + "/.well-known", true));
+        assertTrue(rules.isIgnored(ROOT + "/.git", true));
+    }
+
+    @Test
+    public void commentsAndBlankLinesAreSkipped() {
+        IgnoreRules rules = rules("# *.md", "", "   ");
+        assertFalse(rules.isIgnored(ROOT + "/pages/a.md", false));
+    }
+
+    @Test
+    public void escapedWildcardIsLiteral() {
+        IgnoreRules rules = rules("\\*.md");
+        assertTrue(rules.isIgnored(ROOT + "/pages/*.md", false));
+        assertFalse(rules.isIgnored(ROOT + "/pages/a.md", false));
+    }
+
+    @Test
+    public void ignoreFileAtTheRootIsRead() throws IOException {
+        File root = File.createTempFile("graph", "");
+        root.delete();
+        root.mkdirs();
+        File ignoreFile = new File(root, IgnoreRules.IGNORE_FILE);
+        try {
+            try (FileOutputStream out = new FileOutputStream(ignoreFile)) {
+                out.write("# local\n/archive/\n".getBytes(StandardCharsets.UTF_8));
+            }
+            IgnoreRules rules = IgnoreRules.compile(root.getPath(), null);
+            assertTrue(rules.isIgnored(root.getPath() + "/archive", true));
+            assertFalse(rules.isIgnored(root.getPath() + "/pages/archive", true));
+        } finally {
+            ignoreFile.delete();
+            root.delete();
+        }
+    }
+}
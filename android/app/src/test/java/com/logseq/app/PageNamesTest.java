@@ -0,0 +1,99 @@
+package com.logseq.app;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public class PageNamesTest {
+    private File mRoot;
+
+    @Before
+    public void setUp() throws IOException {
+        mRoot = File.createTempFile("graph", "");
+        mRoot.delete();
+        new File(mRoot, "logseq").mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        new File(mRoot, PageNames.CONFIG_PATH).delete();
+        new File(mRoot, "logseq").delete();
+        mRoot.delete();
+    }
+
+    private void writeConfig(String edn) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(new File(mRoot, PageNames.CONFIG_PATH))) {
+            out.write(edn.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void journalsGetTheirTitle() {
+        PageNames names = new PageNames("triple-lowbar", null);
+        assertEquals("Jan 1st, 2024", names.pageName("journals/2024_01_01.md", null));
+        assertEquals("Mar 22nd, 2023", names.pageName("journals/2023_03_22.md", null));
+        assertEquals("Feb 11th, 2024", names.pageName("journals/2024_02_11.md", null));
+        // not a date
+        assertEquals("2024_02_30", names.pageName("journals/2024_02_30.md", null));
+    }
+
+    @Test
+    public void journalTitleFollowsTheConfiguredFormat() {
+        assertEquals("2024-01-01 Monday", new PageNames(null, "yyyy-MM-dd EEEE").pageName("journals/2024_01_01.md", null));
+        assertEquals("Mon, 01.01.2024", new PageNames(null, "E, dd.MM.yyyy").pageName("journals/2024_01_01.md", null));
+        assertEquals("2024年01月01日", new PageNames(null, "yyyy年MM月dd日").pageName("journals/2024_01_01.md", null));
+        // a title:: reading as a date is a journal too
+        assertEquals("1st January 2024", new PageNames(null, "do MMMM yyyy").pageName("pages/x.md", "jan 1st, 2024"));
+    }
+
+    @Test
+    public void tripleLowbarNamesAreDecoded() {
+        PageNames names = new PageNames("triple-lowbar", null);
+        assertEquals("a/b/c", names.pageName("pages/a___b___c.md", null));
+        assertEquals("what?", names.pageName("pages/what%3F.md", null));
+        assertEquals("中文/x", names.pageName("pages/%E4%B8%AD%E6%96%87%2Fx.md", null));
+        assertEquals("a.b", names.pageName("pages/a.b.md", null));
+        // empty namespaces dropped
+        assertEquals("a/b", names.pageName("pages/___a______b.md", null));
+        assertEquals("Contents", names.pageName("pages/contents.md", null));
+    }
+
+    @Test
+    public void legacyNamesAreDecoded() {
+        PageNames names = new PageNames(null, null);
+        assertEquals("a/b", names.pageName("pages/a.b.md", null));
+        assertEquals("a/b", names.pageName("pages/a%2Fb.md", null));
+        // malformed, kept as is
+        assertEquals("100%", names.pageName("pages/100%.md", null));
+    }
+
+    @Test
+    public void titlePropertyWins() {
+        assertEquals("My page", new PageNames("triple-lowbar", null).pageName("pages/my_page.md", "My page"));
+    }
+
+    @Test
+    public void settingsComeFromTheGraphConfig() throws IOException {
+        writeConfig("{:meta/version 1\n"
+            + " ;; :journal/page-title-format \"yyyy-MM-dd\"\n"
+            + " :journal/page-title-format \"EEEE, dd-MM-yyyy\" ; the one in use\n"
+            + " :file/name-format :triple-lowbar}\n");
+        PageNames names = PageNames.load(mRoot.getPath());
+        assertEquals("Monday, 01-01-2024", names.pageName("journals/2024_01_01.md", null));
+        assertEquals("a.b", names.pageName("pages/a.b.md", null));
+    }
+
+    @Test
+    public void defaultsWithoutConfig() {
+        PageNames names = PageNames.load(mRoot.getPath());
+        assertEquals("Jan 1st, 2024", names.pageName("journals/2024_01_01.md", null));
+        assertEquals("a/b", names.pageName("pages/a.b.md", null));
+    }
+}
@@ -0,0 +1,76 @@
+package com.logseq.app;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+// Query latency over 50k synthetic page titles, a third of them with an alias, for queries typed a
+// character at a time. Seeding is timed too, twice: re-putting every page must stay linear. Logged
+// as median and p99; the assertions leave a wide margin over the desktop JVM numbers and only catch
+// a matcher gone quadratic or allocating per entry.
+public class TitleMatcherBenchmark {
+    private static final int PAGES = 50_000;
+    private static final int K = 20;
+    private static final String[] WORDS = {
+        "project", "meeting", "notes", "design", "review", "weekly", "roadmap", "idea", "book", "reading",
+        "café", "recipe", "travel", "budget", "kubernetes", "clojure", "android", "garden", "journal", "todo",
+        "research", "paper", "draft", "archive", "q3", "2024", "plan", "retro", "interview", "über"
+    };
+    private static final String[] QUERIES = {"p", "pr", "pro", "proj", "proje", "project", "project n", "project no",
+        "k", "ku", "kub", "cafe", "w r", "2024 pl", "zzz", "über d"};
+
+    @Test
+    public void querySubMillisecond() {
+        TitleMatcher matcher = new TitleMatcher();
+        long seed = this.seed(matcher, 0);
+        // every page again, each put replaces the page's entries
+        long reseed = this.seed(matcher, 1);
+        System.out.println(String.format("TitleMatcher: seeding %d pages %.1f ms, re-seeding %.1f ms",
+            PAGES, seed / 1e6, reseed / 1e6));
+        assertTrue(reseed < Math.max(seed, 50_000_000L) * 10);
+
+        int[] out = new int[K];
+        for (int i = 0; i < 200; i++) {
+            matcher.search(QUERIES[i % QUERIES.length], K, out);
+        }
+        int rounds = 50;
+        long[] times = new long[rounds * QUERIES.length];
+        int n = 0;
+        for (int r = 0; r < rounds; r++) {
+            for (String query : QUERIES) {
+                long start = System.nanoTime();
+                matcher.search(query, K, out);
+                times[n++] = System.nanoTime() - start;
+            }
+        }
+        Arrays.sort(times);
+        long median = times[times.length / 2];
+        long p99 = times[times.length * 99 / 100];
+        System.out.println(String.format("TitleMatcher: %d pages, query median %.3f ms, p99 %.3f ms",
+            PAGES, median / 1e6, p99 / 1e6));
+        assertTrue(median < 1_000_000);
+    }
+
+    // nanoseconds to put every page, titles differ per round
+    private long seed(TitleMatcher matcher, int round) {
+        Random random = new Random(round);
+        long start = System.nanoTime();
+        for (int i = 0; i < PAGES; i++) {
+            StringBuilder title = new StringBuilder();
+            int words = 1 + random.nextInt(4);
+            for (int w = 0; w < words; w++) {
+                if (w > 0) {
+                    title.append(' ');
+                }
+                title.append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            title.append(' ').append(i);
+            String[] aliases = i % 3 == 0 ? new String[] {WORDS[random.nextInt(WORDS.length)] + " " + i} : null;
+            matcher.put("page-" + i, title.toString(), aliases);
+        }
+        return System.nanoTime() - start;
+    }
+}
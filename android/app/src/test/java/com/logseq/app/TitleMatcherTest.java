@@ -0,0 +1,108 @@
+package com.logseq.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TitleMatcherTest {
+    private static String[] search(TitleMatcher matcher, String query) {
+        int[] out = new int[10];
+        int count = matcher.search(query, out.length, out);
+        String[] ids = new String[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = matcher.id(out[i]);
+        }
+        return ids;
+    }
+
+    @Test
+    public void bestMatchFirst() {
+        TitleMatcher matcher = new TitleMatcher();
+        matcher.put("1", "Project notes", null);
+        matcher.put("2", "Projects", null);
+        matcher.put("3", "Unrelated", null);
+        String[] ids = search(matcher, "projects");
+        assertEquals(2, ids.length);
+        assertEquals("2", ids[0]);
+        assertEquals("1", ids[1]);
+    }
+
+    @Test
+    public void foldsCaseAndDiacritics() {
+        TitleMatcher matcher = new TitleMatcher();
+        matcher.put("1", "Café Crème", null);
+        assertEquals(1, search(matcher, "cafe creme").length);
+    }
+
+    @Test
+    public void aliasesMatchOncePerPage() {
+        TitleMatcher matcher = new TitleMatcher();
+        matcher.put("1", "Kubernetes", new String[] {"k8s", "kube"});
+        int[] out = new int[10];
+        assertEquals(1, matcher.search("k", out.length, out));
+        assertEquals(1, matcher.search("k8", out.length, out));
+        assertEquals("k8s", matcher.text(out[0]));
+        assertEquals("Kubernetes", matcher.title(out[0]));
+    }
+
+    @Test
+    public void putReplacesThePage() {
+        TitleMatcher matcher = new TitleMatcher();
+        matcher.put("1", "Old title", new String[] {"old alias"});
+        matcher.put("1", "New title", null);
+        assertEquals(0, search(matcher, "old").length);
+        assertEquals(1, search(matcher, "new").length);
+        assertEquals(1, matcher.size());
+    }
+
+    @Test
+    public void rePutPagesAreCompacted() {
+        TitleMatcher matcher = new TitleMatcher();
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 1000; i++) {
+                matcher.put("p" + i, "page " + i + " round " + round, new String[] {"alias " + i});
+            }
+        }
+        assertEquals(1000, matcher.size());
+        String[] ids = search(matcher, "page 999 round 4");
+        assertEquals("p999", ids[0]);
+        assertEquals(0, search(matcher, "round 3").length);
+    }
+
+    @Test
+    public void removedPagesAreCompacted() {
+        TitleMatcher matcher = new TitleMatcher();
+        for (int i = 0; i < 3000; i++) {
+            matcher.put("p" + i, "page " + i, null);
+        }
+        for (int i = 0; i < 2500; i++) {
+            matcher.remove("p" + i);
+        }
+        assertEquals(500, matcher.size());
+        for (String id : search(matcher, "page 1")) {
+            assertTrue(id, Integer.parseInt(id.substring(1)) >= 2500);
+        }
+        assertEquals("p2999", search(matcher, "page 2999")[0]);
+    }
+
+    @Test
+    public void emptyQueryMatchesNothing() {
+        TitleMatcher matcher = new TitleMatcher();
+        matcher.put("1", "Page", null);
+        assertEquals(0, search(matcher, "  ").length);
+        matcher.clear();
+        assertEquals(0, search(matcher, "page").length);
+        assertEquals(0, matcher.size());
+    }
+
+    @Test
+    public void removingAnUnknownPageIsANoop() {
+        TitleMatcher matcher = new TitleMatcher();
+        matcher.remove("missing");
+        matcher.put("1", "Page", null);
+        int[] out = new int[1];
+        assertEquals(1, matcher.search("page", 1, out));
+        assertEquals("Page", matcher.text(out[0]));
+    }
+}
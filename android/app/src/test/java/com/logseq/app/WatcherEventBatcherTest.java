@@ -0,0 +1,148 @@
+package com.logseq.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import android.os.FileObserver;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+public class WatcherEventBatcherTest {
+    // holds on to what the batcher hands over instead of running it
+    private static final class HeldExecutor extends ScheduledThreadPoolExecutor {
+        final List<Runnable> executed = new ArrayList<>();
+
+        HeldExecutor() {
+            super(1);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            executed.add(command);
+        }
+
+        void runAll() {
+            List<Runnable> commands = new ArrayList<>(executed);
+            executed.clear();
+            for (Runnable command : commands) {
+                command.run();
+            }
+        }
+    }
+
+    private HeldExecutor mExecutor;
+    private List<List<WatcherEventBatcher.Pending>> mBatches;
+    private WatcherEventBatcher mBatcher;
+
+    @Before
+    public void setUp() {
+        mExecutor = new HeldExecutor();
+        mBatches = new ArrayList<>();
+        mBatcher = new WatcherEventBatcher(mExecutor, 60_000, 4, events -> mBatches.add(new ArrayList<>(events)));
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void createThenModifyIsCreate() {
+        assertEquals(FileObserver.CREATE, WatcherEventBatcher.merge(FileObserver.CREATE, FileObserver.MODIFY));
+    }
+
+    @Test
+    public void createThenDeleteCancelsOut() {
+        assertEquals(0, WatcherEventBatcher.merge(FileObserver.CREATE, FileObserver.DELETE));
+    }
+
+    @Test
+    public void deleteThenCreateIsModify() {
+        assertEquals(FileObserver.MODIFY, WatcherEventBatcher.merge(FileObserver.DELETE, FileObserver.CREATE));
+        assertEquals(FileObserver.DELETE, WatcherEventBatcher.merge(FileObserver.DELETE, FileObserver.DELETE));
+    }
+
+    @Test
+    public void modifyTakesTheLaterEvent() {
+        assertEquals(FileObserver.MODIFY, WatcherEventBatcher.merge(FileObserver.MODIFY, FileObserver.MODIFY));
+        assertEquals(FileObserver.MODIFY, WatcherEventBatcher.merge(FileObserver.MODIFY, FileObserver.CREATE));
+        assertEquals(FileObserver.DELETE, WatcherEventBatcher.merge(FileObserver.MODIFY, FileObserver.DELETE));
+    }
+
+    @Test
+    public void fullBatchQueuesOneImmediateFlush() {
+        for (int i = 0; i < 100; i++) {
+            mBatcher.add(FileObserver.MODIFY, "/g/pages/" + i + ".md", null, i + 1);
+        }
+        assertEquals(1, mExecutor.executed.size());
+
+        mExecutor.runAll();
+        assertEquals(1, mBatches.size());
+        assertEquals(100, mBatches.get(0).size());
+
+        // once flushed a full batch queues the next flush again
+        for (int i = 0; i < 4; i++) {
+            mBatcher.add(FileObserver.MODIFY, "/g/pages/" + i + ".md", null, 101 + i);
+        }
+        assertEquals(1, mExecutor.executed.size());
+    }
+
+    @Test
+    public void renamedFileThatChangesIsDeleteAndCreate() {
+        mBatcher.addRename("/g/a.md", "/g/b.md", null, 1, 2);
+        mBatcher.add(FileObserver.MODIFY, "/g/b.md", null, 3);
+        mBatcher.add(FileObserver.MODIFY, "/g/c.md", null, 4);
+        mBatcher.add(FileObserver.MODIFY, "/g/d.md", null, 5);
+        mExecutor.runAll();
+
+        List<WatcherEventBatcher.Pending> batch = mBatches.get(0);
+        assertEquals("/g/a.md", batch.get(0).path);
+        assertEquals(FileObserver.DELETE, batch.get(0).event);
+        // the unlink as journaled with the rename
+        assertEquals(1, batch.get(0).generation);
+        assertEquals("/g/b.md", batch.get(1).path);
+        assertEquals(FileObserver.CREATE, batch.get(1).event);
+        assertEquals(3, batch.get(1).generation);
+        assertNull(batch.get(1).oldPath);
+    }
+
+    @Test
+    public void renamedTwiceKeepsTheFirstPath() {
+        mBatcher.addRename("/g/a.md", "/g/b.md", null, 1, 2);
+        mBatcher.addRename("/g/b.md", "/g/c.md", null, 3, 4);
+        for (int i = 0; i < 3; i++) {
+            mBatcher.add(FileObserver.MODIFY, "/g/" + i + ".md", null, 5 + i);
+        }
+        mExecutor.runAll();
+
+        WatcherEventBatcher.Pending renamed = mBatches.get(0).get(0);
+        assertEquals(FileObserver.MOVED_TO, renamed.event);
+        assertEquals("/g/a.md", renamed.oldPath);
+        assertEquals("/g/c.md", renamed.path);
+        assertEquals(4, renamed.generation);
+        // still stands for the unlink of a.md
+        assertEquals(1, renamed.firstGeneration);
+    }
+
+    @Test
+    public void mergedEventKeepsItsFirstGeneration() {
+        mBatcher.add(FileObserver.MODIFY, "/g/a.md", null, 1);
+        mBatcher.add(FileObserver.MODIFY, "/g/b.md", null, 2);
+        mBatcher.add(FileObserver.MODIFY, "/g/a.md", null, 3);
+        for (int i = 0; i < 2; i++) {
+            mBatcher.add(FileObserver.MODIFY, "/g/" + i + ".md", null, 4 + i);
+        }
+        mExecutor.runAll();
+
+        WatcherEventBatcher.Pending merged = mBatches.get(0).get(0);
+        assertEquals("/g/a.md", merged.path);
+        assertEquals(3, merged.generation);
+        assertEquals(1, merged.firstGeneration);
+    }
+}
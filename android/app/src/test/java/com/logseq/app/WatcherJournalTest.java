@@ -0,0 +1,93 @@
+package com.logseq.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.os.FileObserver;
+
+import org.junit.Test;
+
+import java.util.List;
+
+public class WatcherJournalTest {
+    @Test
+    public void collapseNeverCancelsOut() {
+        assertEquals(FileObserver.DELETE, WatcherJournal.collapse(FileObserver.CREATE, FileObserver.DELETE));
+        assertEquals(FileObserver.DELETE, WatcherJournal.collapse(FileObserver.MODIFY, FileObserver.DELETE));
+    }
+
+    @Test
+    public void collapseFollowsTheBatcherOtherwise() {
+        assertEquals(FileObserver.CREATE, WatcherJournal.collapse(FileObserver.CREATE, FileObserver.MODIFY));
+        assertEquals(FileObserver.MODIFY, WatcherJournal.collapse(FileObserver.DELETE, FileObserver.CREATE));
+        assertEquals(FileObserver.MODIFY, WatcherJournal.collapse(FileObserver.MODIFY, FileObserver.MODIFY));
+    }
+
+    @Test
+    public void generationsIncrease() {
+        WatcherJournal journal = new WatcherJournal(10);
+        assertEquals(0, journal.generation());
+        assertEquals(1, journal.record(FileObserver.CREATE, "/g/a.md", null));
+        assertEquals(2, journal.record(FileObserver.CREATE, "/g/b.md", null));
+        assertEquals(3, journal.record(FileObserver.MODIFY, "/g/a.md", null));
+        assertEquals(3, journal.generation());
+    }
+
+    @Test
+    public void sinceKeepsTheLatestEntryPerPath() {
+        WatcherJournal journal = new WatcherJournal(10);
+        journal.record(FileObserver.CREATE, "/g/a.md", null);
+        journal.record(FileObserver.CREATE, "/g/b.md", null);
+        journal.record(FileObserver.MODIFY, "/g/a.md", null);
+
+        List<WatcherJournal.Entry> all = journal.since(0);
+        assertEquals(2, all.size());
+        assertEquals("/g/b.md", all.get(0).path);
+        assertEquals("/g/a.md", all.get(1).path);
+        // still an add for a caller that never heard of it
+        assertEquals(FileObserver.CREATE, all.get(1).event);
+        assertEquals(3, all.get(1).generation);
+
+        List<WatcherJournal.Entry> later = journal.since(2);
+        assertEquals(1, later.size());
+        assertEquals("/g/a.md", later.get(0).path);
+        assertTrue(journal.since(3).isEmpty());
+    }
+
+    @Test
+    public void addThenDeleteStaysADelete() {
+        WatcherJournal journal = new WatcherJournal(10);
+        journal.record(FileObserver.CREATE, "/g/a.md", null);
+        journal.record(FileObserver.DELETE, "/g/a.md", null);
+        List<WatcherJournal.Entry> changes = journal.since(0);
+        assertEquals(1, changes.size());
+        assertEquals(FileObserver.DELETE, changes.get(0).event);
+    }
+
+    @Test
+    public void evictedChangesRequireAResync() {
+        WatcherJournal journal = new WatcherJournal(2);
+        journal.record(FileObserver.CREATE, "/g/a.md", null);
+        journal.record(FileObserver.CREATE, "/g/b.md", null);
+        journal.record(FileObserver.CREATE, "/g/c.md", null);
+
+        // a.md at generation 1 is gone
+        assertNull(journal.since(0));
+        List<WatcherJournal.Entry> changes = journal.since(1);
+        assertEquals(2, changes.size());
+        assertEquals("/g/b.md", changes.get(0).path);
+        assertEquals("/g/c.md", changes.get(1).path);
+    }
+
+    @Test
+    public void rewritingAPathDoesNotEvictOthers() {
+        WatcherJournal journal = new WatcherJournal(2);
+        journal.record(FileObserver.CREATE, "/g/a.md", null);
+        journal.record(FileObserver.CREATE, "/g/b.md", null);
+        for (int i = 0; i < 10; i++) {
+            journal.record(FileObserver.MODIFY, "/g/b.md", null);
+        }
+        assertEquals(2, journal.since(0).size());
+    }
+}
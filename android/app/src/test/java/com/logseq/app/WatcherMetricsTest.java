@@ -0,0 +1,24 @@
+package com.logseq.app;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class WatcherMetricsTest {
+    @Test
+    public void boundsAreInclusive() {
+        assertEquals(0, WatcherMetrics.Histogram.bucketOf(0));
+        assertEquals(0, WatcherMetrics.Histogram.bucketOf(1));
+        assertEquals(1, WatcherMetrics.Histogram.bucketOf(2));
+        assertEquals(1, WatcherMetrics.Histogram.bucketOf(5));
+        assertEquals(2, WatcherMetrics.Histogram.bucketOf(6));
+    }
+
+    @Test
+    public void lastBucketTakesTheRest() {
+        long last = WatcherMetrics.Histogram.BOUNDS[WatcherMetrics.Histogram.BOUNDS.length - 1];
+        assertEquals(WatcherMetrics.Histogram.BOUNDS.length - 1, WatcherMetrics.Histogram.bucketOf(last));
+        assertEquals(WatcherMetrics.Histogram.BOUNDS.length, WatcherMetrics.Histogram.bucketOf(last + 1));
+        assertEquals(WatcherMetrics.Histogram.BOUNDS.length, WatcherMetrics.Histogram.bucketOf(Long.MAX_VALUE));
+    }
+}
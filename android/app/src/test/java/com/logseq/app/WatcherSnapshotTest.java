@@ -0,0 +1,77 @@
+package com.logseq.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+public class WatcherSnapshotTest {
+    private File mDir;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("snapshot", "");
+        mDir.delete();
+        mDir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = new File(mDir, "fs-watcher").listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        new File(mDir, "fs-watcher").delete();
+        mDir.delete();
+    }
+
+    @Test
+    public void rootsWithTheSameHashCodeGetTheirOwnFiles() {
+        // "Aa" and "BB" share their String.hashCode()
+        assertEquals("/graphs/Aa".hashCode(), "/graphs/BB".hashCode());
+        assertNotEquals(WatcherSnapshot.fileFor(mDir, "/graphs/Aa"), WatcherSnapshot.fileFor(mDir, "/graphs/BB"));
+        assertNotEquals(FullTextIndex.fileFor(mDir, "/graphs/Aa"), FullTextIndex.fileFor(mDir, "/graphs/BB"));
+    }
+
+    @Test
+    public void fileNameIsStable() {
+        assertEquals("a94a8fe5ccb19ba61c4c0873d391e987982fbbd3", WatcherSnapshot.fileName("test"));
+    }
+
+    @Test
+    public void savedSnapshotLoadsBack() {
+        Map<String, FsWatcher.SimpleFileMetadata> metaDb = new HashMap<>();
+        metaDb.put("/graph/pages/a.md", new FsWatcher.SimpleFileMetadata(1, 2, 3, 4, 5));
+        metaDb.put("/graph/journals/2024_01_01.md", new FsWatcher.SimpleFileMetadata(6, 7, 8, 9, 0));
+        File file = WatcherSnapshot.fileFor(mDir, "/graph");
+        WatcherSnapshot.save(file, "/graph", metaDb);
+
+        Map<String, FsWatcher.SimpleFileMetadata> loaded = WatcherSnapshot.load(file, "/graph");
+        assertEquals(metaDb.keySet(), loaded.keySet());
+        FsWatcher.SimpleFileMetadata a = loaded.get("/graph/pages/a.md");
+        assertEquals(1, a.mtime);
+        assertEquals(2, a.ctime);
+        assertEquals(3, a.size);
+        assertEquals(4, a.ino);
+        assertEquals(5, a.hash);
+    }
+
+    @Test
+    public void snapshotOfAnotherRootIsIgnored() {
+        Map<String, FsWatcher.SimpleFileMetadata> metaDb = new HashMap<>();
+        metaDb.put("/graph/a.md", new FsWatcher.SimpleFileMetadata(1, 2, 3, 4, 5));
+        File file = WatcherSnapshot.fileFor(mDir, "/graph");
+        WatcherSnapshot.save(file, "/graph", metaDb);
+        assertNull(WatcherSnapshot.load(file, "/other"));
+    }
+}